@@ -0,0 +1,89 @@
+package com.example.android.sunshine.app;
+
+/**
+ * Recorded OpenWeatherMap daily forecast responses used by the parser tests.
+ */
+class ForecastFixtures {
+
+    static final String MOUNTAIN_VIEW_SETTING = "94043";
+
+    // forecast/daily?q=94043&mode=json&units=metric&cnt=7
+    static final String MOUNTAIN_VIEW_7_DAY =
+            "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},\"coun" +
+            "try\":\"US\",\"population\":0},\"cod\":\"200\",\"message\":0.0123,\"cnt\":7,\"list\":[{\"dt\":1419105600,\"t" +
+            "emp\":{\"day\":14.06,\"min\":11.48,\"max\":16.64,\"night\":11.48,\"eve\":15.64,\"morn\":12.48},\"pressur" +
+            "e\":991.93,\"humidity\":98,\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\"" +
+            ",\"icon\":\"04d\"}],\"speed\":1.13,\"deg\":298,\"clouds\":7},{\"dt\":1419192000,\"temp\":{\"day\":5.5,\"min" +
+            "\":4.15,\"max\":6.84,\"night\":4.15,\"eve\":5.84,\"morn\":5.15},\"pressure\":1006.73,\"humidity\":60,\"w" +
+            "eather\":[{\"id\":600,\"main\":\"Snow\",\"description\":\"light snow\",\"icon\":\"13d\"}],\"speed\":1.09,\"d" +
+            "eg\":217,\"clouds\":7},{\"dt\":1419278400,\"temp\":{\"day\":5.13,\"min\":3.24,\"max\":7.03,\"night\":3.24" +
+            ",\"eve\":6.03,\"morn\":4.24},\"pressure\":1015.1,\"humidity\":37,\"weather\":[{\"id\":600,\"main\":\"Snow" +
+            "\",\"description\":\"light snow\",\"icon\":\"13d\"}],\"speed\":6.93,\"deg\":203,\"clouds\":6},{\"dt\":14193" +
+            "64800,\"temp\":{\"day\":6.91,\"min\":2.47,\"max\":11.34,\"night\":2.47,\"eve\":10.34,\"morn\":3.47},\"pre" +
+            "ssure\":1001.58,\"humidity\":48,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\"" +
+            ",\"icon\":\"10d\"}],\"speed\":6.49,\"deg\":292,\"clouds\":39},{\"dt\":1419451200,\"temp\":{\"day\":11.88,\"" +
+            "min\":10.16,\"max\":13.61,\"night\":10.16,\"eve\":12.61,\"morn\":11.16},\"pressure\":1013.26,\"humidit" +
+            "y\":54,\"weather\":[{\"id\":600,\"main\":\"Snow\",\"description\":\"light snow\",\"icon\":\"13d\"}],\"speed\"" +
+            ":4.47,\"deg\":280,\"clouds\":91},{\"dt\":1419537600,\"temp\":{\"day\":11.12,\"min\":7.64,\"max\":14.59,\"" +
+            "night\":7.64,\"eve\":13.59,\"morn\":8.64},\"pressure\":1009.86,\"humidity\":98,\"weather\":[{\"id\":800" +
+            ",\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":5.13,\"deg\":160,\"clouds" +
+            "\":59},{\"dt\":1419624000,\"temp\":{\"day\":13.68,\"min\":11.23,\"max\":16.12,\"night\":11.23,\"eve\":15." +
+            "12,\"morn\":12.23},\"pressure\":999.94,\"humidity\":53,\"weather\":[{\"id\":600,\"main\":\"Snow\",\"descr" +
+            "iption\":\"light snow\",\"icon\":\"13d\"}],\"speed\":8.39,\"deg\":124,\"clouds\":10}]}";
+
+    static final String LONDON_SETTING = "London, UK";
+
+    // forecast/daily?q=London,UK&mode=json&units=metric&cnt=16
+    // The city object trails the list here and some days carry more than one weather element.
+    static final String LONDON_16_DAY =
+            "{\"cod\":\"200\",\"message\":0.2091,\"cnt\":16,\"list\":[{\"dt\":1419105600,\"temp\":{\"day\":7.98,\"min\":5" +
+            ".0,\"max\":10.96,\"night\":5.0,\"eve\":9.96,\"morn\":6.0},\"pressure\":1003.74,\"humidity\":87,\"weathe" +
+            "r\":[{\"id\":600,\"main\":\"Snow\",\"description\":\"light snow\",\"icon\":\"13d\"},{\"id\":701,\"main\":\"Mis" +
+            "t\",\"description\":\"mist\",\"icon\":\"50d\"}],\"speed\":3.46,\"deg\":37,\"clouds\":15,\"rain\":2.56},{\"dt" +
+            "\":1419192000,\"temp\":{\"day\":11.18,\"min\":9.57,\"max\":12.79,\"night\":9.57,\"eve\":11.79,\"morn\":10" +
+            ".57},\"pressure\":1009.56,\"humidity\":35,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"li" +
+            "ght rain\",\"icon\":\"10d\"}],\"speed\":11.54,\"deg\":39,\"clouds\":97},{\"dt\":1419278400,\"temp\":{\"day" +
+            "\":12.23,\"min\":7.73,\"max\":16.73,\"night\":7.73,\"eve\":15.73,\"morn\":8.73},\"pressure\":1002.55,\"h" +
+            "umidity\":74,\"weather\":[{\"id\":600,\"main\":\"Snow\",\"description\":\"light snow\",\"icon\":\"13d\"}],\"" +
+            "speed\":7.13,\"deg\":296,\"clouds\":58},{\"dt\":1419364800,\"temp\":{\"day\":15.18,\"min\":10.4,\"max\":1" +
+            "9.96,\"night\":10.4,\"eve\":18.96,\"morn\":11.4},\"pressure\":1008.96,\"humidity\":38,\"weather\":[{\"i" +
+            "d\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"},{\"id\":701,\"main\":\"Mist\",\"" +
+            "description\":\"mist\",\"icon\":\"50d\"}],\"speed\":0.73,\"deg\":359,\"clouds\":39,\"rain\":3.24},{\"dt\":1" +
+            "419451200,\"temp\":{\"day\":7.39,\"min\":4.85,\"max\":9.94,\"night\":4.85,\"eve\":8.94,\"morn\":5.85},\"p" +
+            "ressure\":1016.75,\"humidity\":32,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clo" +
+            "uds\",\"icon\":\"02d\"}],\"speed\":11.29,\"deg\":181,\"clouds\":21},{\"dt\":1419537600,\"temp\":{\"day\":4." +
+            "4,\"min\":3.17,\"max\":5.64,\"night\":3.17,\"eve\":4.64,\"morn\":4.17},\"pressure\":1020.73,\"humidity\"" +
+            ":46,\"weather\":[{\"id\":600,\"main\":\"Snow\",\"description\":\"light snow\",\"icon\":\"13d\"}],\"speed\":8" +
+            ".86,\"deg\":203,\"clouds\":50},{\"dt\":1419624000,\"temp\":{\"day\":5.61,\"min\":2.81,\"max\":8.4,\"night" +
+            "\":2.81,\"eve\":7.4,\"morn\":3.81},\"pressure\":1011.98,\"humidity\":47,\"weather\":[{\"id\":801,\"main\"" +
+            ":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"},{\"id\":701,\"main\":\"Mist\",\"description\":\"" +
+            "mist\",\"icon\":\"50d\"}],\"speed\":9.83,\"deg\":281,\"clouds\":35,\"rain\":3.53},{\"dt\":1419710400,\"tem" +
+            "p\":{\"day\":11.35,\"min\":8.83,\"max\":13.87,\"night\":8.83,\"eve\":12.87,\"morn\":9.83},\"pressure\":99" +
+            "9.23,\"humidity\":40,\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\",\"ico" +
+            "n\":\"04d\"}],\"speed\":2.11,\"deg\":118,\"clouds\":84},{\"dt\":1419796800,\"temp\":{\"day\":6.45,\"min\":2" +
+            ".12,\"max\":10.77,\"night\":2.12,\"eve\":9.77,\"morn\":3.12},\"pressure\":997.29,\"humidity\":66,\"weat" +
+            "her\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":0.05,\"deg\"" +
+            ":214,\"clouds\":68},{\"dt\":1419883200,\"temp\":{\"day\":10.38,\"min\":8.1,\"max\":12.65,\"night\":8.1,\"" +
+            "eve\":11.65,\"morn\":9.1},\"pressure\":995.02,\"humidity\":95,\"weather\":[{\"id\":803,\"main\":\"Clouds" +
+            "\",\"description\":\"broken clouds\",\"icon\":\"04d\"},{\"id\":701,\"main\":\"Mist\",\"description\":\"mist\"" +
+            ",\"icon\":\"50d\"}],\"speed\":11.4,\"deg\":335,\"clouds\":86,\"rain\":3.7},{\"dt\":1419969600,\"temp\":{\"d" +
+            "ay\":15.12,\"min\":11.0,\"max\":19.24,\"night\":11.0,\"eve\":18.24,\"morn\":12.0},\"pressure\":1024.98," +
+            "\"humidity\":80,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"" +
+            "}],\"speed\":4.78,\"deg\":201,\"clouds\":13},{\"dt\":1420056000,\"temp\":{\"day\":9.59,\"min\":8.34,\"max" +
+            "\":10.84,\"night\":8.34,\"eve\":9.84,\"morn\":9.34},\"pressure\":992.69,\"humidity\":56,\"weather\":[{\"" +
+            "id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":5.29,\"deg\":56,\"c" +
+            "louds\":43},{\"dt\":1420142400,\"temp\":{\"day\":3.53,\"min\":2.53,\"max\":4.53,\"night\":2.53,\"eve\":3." +
+            "53,\"morn\":3.53},\"pressure\":996.05,\"humidity\":42,\"weather\":[{\"id\":600,\"main\":\"Snow\",\"descri" +
+            "ption\":\"light snow\",\"icon\":\"13d\"},{\"id\":701,\"main\":\"Mist\",\"description\":\"mist\",\"icon\":\"50d" +
+            "\"}],\"speed\":11.39,\"deg\":314,\"clouds\":3,\"rain\":0.35},{\"dt\":1420228800,\"temp\":{\"day\":9.73,\"m" +
+            "in\":8.14,\"max\":11.33,\"night\":8.14,\"eve\":10.33,\"morn\":9.14},\"pressure\":1000.09,\"humidity\":7" +
+            "4,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":7.2" +
+            "3,\"deg\":242,\"clouds\":15},{\"dt\":1420315200,\"temp\":{\"day\":15.46,\"min\":10.49,\"max\":20.43,\"nig" +
+            "ht\":10.49,\"eve\":19.43,\"morn\":11.49},\"pressure\":1008.64,\"humidity\":91,\"weather\":[{\"id\":800," +
+            "\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":3.74,\"deg\":73,\"clouds\":" +
+            "13},{\"dt\":1420401600,\"temp\":{\"day\":12.32,\"min\":9.4,\"max\":15.23,\"night\":9.4,\"eve\":14.23,\"mo" +
+            "rn\":10.4},\"pressure\":1017.68,\"humidity\":96,\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"descripti" +
+            "on\":\"broken clouds\",\"icon\":\"04d\"},{\"id\":701,\"main\":\"Mist\",\"description\":\"mist\",\"icon\":\"50d" +
+            "\"}],\"speed\":0.28,\"deg\":270,\"clouds\":46,\"rain\":0.73}],\"city\":{\"id\":2643743,\"name\":\"London\"," +
+            "\"coord\":{\"lon\":-0.1258,\"lat\":51.5085},\"country\":\"GB\",\"population\":0}}";
+}
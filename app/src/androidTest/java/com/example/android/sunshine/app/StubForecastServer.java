@@ -0,0 +1,235 @@
+package com.example.android.sunshine.app;
+
+import android.net.Uri;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the OpenWeatherMap API, so network tests never leave the device.
+ *
+ * Serves the same body for every request, with an ETag so conditional requests can be
+ * answered with 304, gzipped when the client asks for it and gzip is enabled.  Connections
+ * are kept alive between requests.
+ */
+class StubForecastServer {
+
+    static final String ETAG = "\"forecast-1\"";
+    static final String LAST_MODIFIED = "Sun, 25 Sep 2016 12:00:00 GMT";
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptThread;
+
+    private volatile String mBody = "";
+    private volatile String mEtag = ETAG;
+    private volatile String mCacheControl;
+    private volatile boolean mGzip;
+    private volatile long mDelayMillis;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private volatile Map<String, String> mLastRequestHeaders = new HashMap<String, String>();
+
+    StubForecastServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StubForecastServer");
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+    }
+
+    Uri getBaseUri() {
+        return Uri.parse("http://127.0.0.1:" + mServerSocket.getLocalPort() +
+                "/data/2.5/forecast/daily");
+    }
+
+    void setBody(String body) {
+        mBody = body;
+    }
+
+    void setEtag(String etag) {
+        mEtag = etag;
+    }
+
+    void setCacheControl(String cacheControl) {
+        mCacheControl = cacheControl;
+    }
+
+    void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
+    // Holds every response back, to keep requests in flight for a while
+    void setDelayMillis(long delayMillis) {
+        mDelayMillis = delayMillis;
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    // Header names are lower case
+    Map<String, String> getLastRequestHeaders() {
+        return mLastRequestHeaders;
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                Map<String, String> headers = readRequestHeaders(in);
+                if (headers == null) {
+                    break;
+                }
+                mRequestCount.incrementAndGet();
+                mLastRequestHeaders = headers;
+                respond(headers, out);
+            }
+        } catch (IOException e) {
+            // Client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    private void respond(Map<String, String> headers, OutputStream out) throws IOException {
+        if (mDelayMillis > 0) {
+            try {
+                Thread.sleep(mDelayMillis);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+        }
+        String etag = mEtag;
+        StringBuilder head = new StringBuilder();
+        byte[] body;
+        if (etag != null && etag.equals(headers.get("if-none-match"))) {
+            mNotModifiedCount.incrementAndGet();
+            head.append("HTTP/1.1 304 Not Modified\r\n");
+            body = new byte[0];
+        } else {
+            head.append("HTTP/1.1 200 OK\r\n");
+            head.append("Content-Type: application/json; charset=utf-8\r\n");
+            body = mBody.getBytes("UTF-8");
+            String acceptEncoding = headers.get("accept-encoding");
+            if (mGzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                head.append("Content-Encoding: gzip\r\n");
+                body = gzip(body);
+            }
+        }
+        if (etag != null) {
+            head.append("ETag: ").append(etag).append("\r\n");
+        }
+        head.append("Last-Modified: ").append(LAST_MODIFIED).append("\r\n");
+        if (mCacheControl != null) {
+            head.append("Cache-Control: ").append(mCacheControl).append("\r\n");
+        }
+        head.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+        out.write(head.toString().getBytes("US-ASCII"));
+        if (!headers.get(":request").startsWith("HEAD")) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(body);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    // Returns null once the client closes the connection
+    private static Map<String, String> readRequestHeaders(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.length() == 0) {
+            return null;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(":request", requestLine);
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("US-ASCII");
+    }
+}
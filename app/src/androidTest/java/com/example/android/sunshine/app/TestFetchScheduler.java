@@ -0,0 +1,150 @@
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestFetchScheduler extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestFetchScheduler.class.getSimpleName();
+
+    public void testVisibleTasksRunFirst() throws Exception {
+        FetchScheduler scheduler = new FetchScheduler(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        // Keeps the only worker busy while the others queue up
+        scheduler.submit(new FetchScheduler.Task<Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                release.await();
+                return null;
+            }
+        });
+        SystemClock.sleep(100);
+        scheduler.submit(new RecordingTask(order, "background 1")
+                .setPriority(FetchScheduler.PRIORITY_BACKGROUND));
+        scheduler.submit(new RecordingTask(order, "background 2")
+                .setPriority(FetchScheduler.PRIORITY_BACKGROUND));
+        scheduler.submit(new RecordingTask(order, "visible"));
+        assertEquals(3, scheduler.getQueueDepth());
+
+        release.countDown();
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return order.size() == 3;
+            }
+        }.run();
+        assertEquals("visible", order.get(0));
+        assertEquals("background 1", order.get(1));
+        assertEquals("background 2", order.get(2));
+        Log.d(LOG_TAG, scheduler.toString());
+    }
+
+    public void testCancelDropsAQueuedTask() throws Exception {
+        FetchScheduler scheduler = new FetchScheduler(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        scheduler.submit(new FetchScheduler.Task<Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                release.await();
+                return null;
+            }
+        });
+        RecordingTask dropped = scheduler.submit(new RecordingTask(order, "dropped"));
+        scheduler.submit(new RecordingTask(order, "kept"));
+        dropped.cancel();
+        assertEquals(1, scheduler.getQueueDepth());
+
+        release.countDown();
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return order.size() == 1;
+            }
+        }.run();
+        SystemClock.sleep(100);
+        assertEquals(Collections.singletonList("kept"), order);
+        assertEquals(1, scheduler.getCancelledCount());
+    }
+
+    public void testCancelAbortsABlockedRead() throws Exception {
+        StubForecastServer server = new StubForecastServer();
+        server.setBody(ForecastFixtures.LONDON_16_DAY);
+        server.setDelayMillis(30000);
+        final ForecastHttpClient client = new ForecastHttpClient(server.getBaseUri(), 5000,
+                60000);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final AtomicBoolean delivered = new AtomicBoolean();
+
+        FetchScheduler scheduler = new FetchScheduler(1);
+        FetchScheduler.Task<Void> task = scheduler.submit(new FetchScheduler.Task<Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                try {
+                    client.get(client.buildForecastUri().build(), null, null).close();
+                } catch (Exception e) {
+                    failure.set(e);
+                    throw e;
+                } finally {
+                    finished.countDown();
+                }
+                return null;
+            }
+
+            @Override
+            protected void onResult(Void result) {
+                delivered.set(true);
+            }
+
+            @Override
+            protected void onError(Exception e) {
+                delivered.set(true);
+            }
+        });
+
+        SystemClock.sleep(500);
+        long cancelled = SystemClock.elapsedRealtime();
+        task.cancel();
+        assertTrue("Error: the read was not aborted",
+                finished.await(5, TimeUnit.SECONDS));
+        Log.d(LOG_TAG, "Read aborted " + (SystemClock.elapsedRealtime() - cancelled) +
+                " ms after cancel: " + failure.get());
+        assertNotNull(failure.get());
+
+        // Give the main thread the chance to deliver, which it must not
+        SystemClock.sleep(200);
+        assertFalse("Error: a cancelled task delivered its result", delivered.get());
+        server.shutdown();
+    }
+
+    static class RecordingTask extends FetchScheduler.Task<Void> {
+        private final List<String> mOrder;
+        private final String mName;
+
+        RecordingTask(List<String> order, String name) {
+            mOrder = order;
+            mName = name;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            mOrder.add(mName);
+            return null;
+        }
+    }
+}
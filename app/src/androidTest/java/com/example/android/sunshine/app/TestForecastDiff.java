@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Arrays;
+
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final String LOCATION = "99705";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1419033600L);
+
+    public void testSameForecastHasNoOps() {
+        ForecastDiff.Result result = ForecastDiff.diff(snapshot(LOCATION, 0, 14, -1),
+                snapshot(LOCATION, 0, 14, -1));
+        assertTrue(result.isEmpty());
+        assertEquals(14, result.unchanged);
+    }
+
+    public void testChangedDayIsTheOnlyOp() {
+        ForecastDiff.Result result = ForecastDiff.diff(snapshot(LOCATION, 0, 14, -1),
+                snapshot(LOCATION, 0, 14, 3));
+        assertEquals(Arrays.asList(new ForecastDiff.Op(ForecastDiff.CHANGE, 3)), result.ops);
+        assertTrue(result.isChangeOnly());
+        assertEquals(13, result.unchanged);
+    }
+
+    public void testNextDayDropsTheFirstAndAddsTheLast() {
+        ForecastDiff.Result result = ForecastDiff.diff(snapshot(LOCATION, 0, 14, -1),
+                snapshot(LOCATION, 1, 14, -1));
+        assertEquals(Arrays.asList(new ForecastDiff.Op(ForecastDiff.REMOVE, 0),
+                new ForecastDiff.Op(ForecastDiff.INSERT, 13)), result.ops);
+        assertEquals(13, result.unchanged);
+    }
+
+    public void testAnotherLocationReplacesEveryDay() {
+        ForecastDiff.Result result = ForecastDiff.diff(snapshot(LOCATION, 0, 3, -1),
+                snapshot("94043", 0, 2, -1));
+        assertEquals(3, result.removed);
+        assertEquals(2, result.inserted);
+        assertEquals(0, result.unchanged);
+    }
+
+    public void testAdapterOnlyRebindsChangedRows() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, 0);
+        FrameLayout parent = new FrameLayout(mContext);
+        View[] views = new View[14];
+
+        adapter.swapCursor(cursor(LOCATION, 0, 14, -1));
+        bindAll(adapter, views, parent);
+        assertEquals(14, adapter.getRowsRebound());
+
+        adapter.swapCursor(cursor(LOCATION, 0, 14, -1));
+        assertTrue(adapter.getLastDiff().isEmpty());
+
+        adapter.swapCursor(cursor(LOCATION, 0, 14, 5));
+        bindAll(adapter, views, parent);
+        assertEquals(15, adapter.getRowsRebound());
+        assertEquals(13, adapter.getRowsSkipped());
+    }
+
+    public void testUnitsChangeReformatsLoadedRows() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, 0);
+        adapter.setMetric(true);
+        FrameLayout parent = new FrameLayout(mContext);
+        View[] views = new View[14];
+
+        adapter.swapCursor(cursor(LOCATION, 0, 14, -1));
+        bindAll(adapter, views, parent);
+        assertTrue(text(views[0]).endsWith(" - 20/10"));
+
+        adapter.setMetric(false);
+        bindAll(adapter, views, parent);
+        assertEquals(28, adapter.getRowsRebound());
+        assertTrue(text(views[0]).endsWith(" - 68/50"));
+
+        adapter.setMetric(false);
+        bindAll(adapter, views, parent);
+        assertEquals("Error: rows were formatted again for the same units",
+                28, adapter.getRowsRebound());
+    }
+
+    private static String text(View view) {
+        return ((TextView) view.findViewById(R.id.list_item_forecast_textview)).getText()
+                .toString();
+    }
+
+    private static void bindAll(ForecastAdapter adapter, View[] views, FrameLayout parent) {
+        for (int i = 0; i < views.length; i++) {
+            views[i] = adapter.getView(i, views[i], parent);
+        }
+    }
+
+    private static ForecastDiff.Snapshot snapshot(String location, int firstDay, int days,
+                                                  int changedDay) {
+        Cursor cursor = cursor(location, firstDay, days, changedDay);
+        ForecastDiff.Snapshot snapshot = ForecastDiff.Snapshot.fromCursor(cursor);
+        cursor.close();
+        return snapshot;
+    }
+
+    // Days of the list projection, with a warmer high on changedDay
+    private static Cursor cursor(String location, int firstDay, int days, int changedDay) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "date", "short_desc", "max",
+                "min", "weather_id", "location_setting"});
+        for (int day = firstDay; day < firstDay + days; day++) {
+            cursor.addRow(new Object[]{day + 1, FIRST_DAY + day * DAY_IN_MILLIS, "Clear",
+                    day == changedDay ? 30.0 : 20.0, 10.0, 800, location});
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.ForecastBlock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestForecastFetchCoordinator extends AndroidTestCase {
+
+    private static final int CALLERS = 5;
+
+    private StubForecastServer mServer;
+    private ForecastResponseCache mCache;
+    private ForecastFetchCoordinator mCoordinator;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubForecastServer();
+        mServer.setBody(ForecastFixtures.MOUNTAIN_VIEW_7_DAY);
+        ForecastHttpClient client = new ForecastHttpClient(mServer.getBaseUri(), 5000, 5000);
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test_coordinator"),
+                4, client);
+        mCache.clear();
+        mCoordinator = new ForecastFetchCoordinator(client, mCache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testConcurrentFetchesAreCoalesced() throws Exception {
+        // Keep the first request in flight long enough for every caller to join it
+        mServer.setDelayMillis(500);
+
+        final ForecastBlock[] results = new ForecastBlock[CALLERS];
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(CALLERS);
+        for (int i = 0; i < CALLERS; i++) {
+            final int caller = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results[caller] = mCoordinator.fetch(
+                                ForecastFixtures.MOUNTAIN_VIEW_SETTING, 7);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (IOException e) {
+                        // results[caller] stays null and fails the test below
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue("Error: fetches did not finish", done.await(10, TimeUnit.SECONDS));
+
+        assertEquals("Error: concurrent fetches were not coalesced", 1, mServer.getRequestCount());
+        assertEquals(1, mCoordinator.getFetchCount());
+        assertEquals(CALLERS - 1, mCoordinator.getCoalescedCount());
+        for (int i = 0; i < CALLERS; i++) {
+            assertNotNull("Error: caller " + i + " got no forecast", results[i]);
+            assertSame(results[0], results[i]);
+        }
+    }
+
+    public void testJoinerSurvivesCancelledLeader() throws Exception {
+        mServer.setDelayMillis(1000);
+
+        FetchScheduler scheduler = new FetchScheduler(1);
+        final CountDownLatch leaderDone = new CountDownLatch(1);
+        FetchScheduler.Task<ForecastBlock> leader = scheduler.submit(
+                new FetchScheduler.Task<ForecastBlock>() {
+                    @Override
+                    protected ForecastBlock doInBackground() throws Exception {
+                        try {
+                            return mCoordinator.fetch(ForecastFixtures.MOUNTAIN_VIEW_SETTING, 7);
+                        } finally {
+                            leaderDone.countDown();
+                        }
+                    }
+                });
+        waitFor(new Condition() {
+            @Override
+            public boolean holds() {
+                return mServer.getRequestCount() == 1;
+            }
+        });
+
+        final AtomicReference<ForecastBlock> joined = new AtomicReference<ForecastBlock>();
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        final CountDownLatch joinerDone = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    joined.set(mCoordinator.fetch(ForecastFixtures.MOUNTAIN_VIEW_SETTING, 7));
+                } catch (IOException e) {
+                    failure.set(e);
+                } finally {
+                    joinerDone.countDown();
+                }
+            }
+        }).start();
+        waitFor(new Condition() {
+            @Override
+            public boolean holds() {
+                return mCoordinator.getCoalescedCount() == 1;
+            }
+        });
+
+        leader.cancel();
+        assertTrue("Error: the leader was not aborted", leaderDone.await(5, TimeUnit.SECONDS));
+        assertTrue("Error: the joiner did not finish", joinerDone.await(10, TimeUnit.SECONDS));
+        assertNull("Error: the joiner failed with the cancelled leader", failure.get());
+        assertNotNull(joined.get());
+        assertEquals(ForecastFixtures.MOUNTAIN_VIEW_SETTING, joined.get().locationSetting);
+        assertEquals("Error: the joiner did not fetch again", 2, mServer.getRequestCount());
+    }
+
+    public void testFetchByIdSharesTheFetchBySetting() throws Exception {
+        mServer.setDelayMillis(500);
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCoordinator.fetch(ForecastFixtures.MOUNTAIN_VIEW_SETTING, 7);
+                } catch (IOException e) {
+                    // the joiner below fails with it
+                } finally {
+                    done.countDown();
+                }
+            }
+        }).start();
+        waitFor(new Condition() {
+            @Override
+            public boolean holds() {
+                return mServer.getRequestCount() == 1;
+            }
+        });
+
+        ForecastBlock byId = mCoordinator.fetch(ForecastFixtures.MOUNTAIN_VIEW_SETTING,
+                5375480, 7);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotNull(byId);
+        assertEquals("Error: the fetch by id did not join the fetch by setting",
+                1, mCoordinator.getCoalescedCount());
+        assertEquals(1, mServer.getRequestCount());
+
+        // The response cached for the setting is revalidated by the request by id
+        mServer.setDelayMillis(0);
+        mCoordinator.fetch(ForecastFixtures.MOUNTAIN_VIEW_SETTING, 5375480, 7);
+        assertEquals(1, mServer.getNotModifiedCount());
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void waitFor(Condition condition) {
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (!condition.holds()) {
+            assertTrue("Error: timed out", SystemClock.elapsedRealtime() < deadline);
+            SystemClock.sleep(10);
+        }
+    }
+
+    public void testDifferentRequestsAreNotCoalesced() throws IOException {
+        ForecastBlock week = mCoordinator.fetch(ForecastFixtures.MOUNTAIN_VIEW_SETTING, 7);
+        ForecastBlock other = mCoordinator.fetch(ForecastFixtures.LONDON_SETTING, 7);
+        assertNotSame(week, other);
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(0, mCoordinator.getCoalescedCount());
+    }
+
+    public void testSequentialFetchesStartNewRequests() throws IOException {
+        mCoordinator.fetch(ForecastFixtures.MOUNTAIN_VIEW_SETTING, 7);
+        mCoordinator.fetch(ForecastFixtures.MOUNTAIN_VIEW_SETTING, 7);
+        assertEquals(2, mCoordinator.getFetchCount());
+        assertEquals(0, mCoordinator.getCoalescedCount());
+    }
+
+    public void testKnownCityIsRequestedById() throws IOException {
+        ForecastBlock block = mCoordinator.fetch(ForecastFixtures.MOUNTAIN_VIEW_SETTING,
+                5375480, 7);
+        String request = mServer.getLastRequestHeaders().get(":request");
+        assertTrue(request, request.contains("id=5375480"));
+        assertFalse(request, request.contains("q="));
+        assertEquals(ForecastFixtures.MOUNTAIN_VIEW_SETTING, block.locationSetting);
+        assertEquals(5375480, block.cityId);
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+public class TestForecastFormatter extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1419033600000L);
+    private static final int DAYS = 14;
+    private static final int ROWS = 10000;
+
+    public void testFormatsLikeConcatenation() {
+        MatrixCursor cursor = createCursor();
+        ForecastFormatter formatter = new ForecastFormatter();
+        ForecastFormatter temperatures = new ForecastFormatter();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("E, MMM d");
+        while (cursor.moveToNext()) {
+            for (boolean isMetric : new boolean[]{true, false}) {
+                String expected = dateFormat.format(new Date(cursor.getLong(
+                        ForecastFragment.COL_WEATHER_DATE))) + " - " +
+                        cursor.getString(ForecastFragment.COL_WEATHER_DESC) + " - " +
+                        temperatures.formatTemperature(cursor.getDouble(
+                                ForecastFragment.COL_WEATHER_MAX_TEMP), isMetric).toString() +
+                        "/" + temperatures.formatTemperature(cursor.getDouble(
+                                ForecastFragment.COL_WEATHER_MIN_TEMP), isMetric).toString();
+                assertEquals(expected, formatter.formatRow(cursor, isMetric).toString());
+            }
+        }
+        cursor.close();
+    }
+
+    public void testFormatsTemperatures() {
+        ForecastFormatter formatter = new ForecastFormatter();
+        assertEquals("22", formatter.formatTemperature(21.5, true).toString());
+        assertEquals("71", formatter.formatTemperature(21.5, false).toString());
+        assertEquals("0", formatter.formatTemperature(-0.4, true).toString());
+        assertEquals("-18", formatter.formatTemperature(-18.5, true).toString());
+        assertEquals("-40", formatter.formatTemperature(-40, false).toString());
+        assertEquals("100", formatter.formatTemperature(37.8, false).toString());
+    }
+
+    public void testEachThreadHasItsOwnFormatter() throws Exception {
+        final ForecastFormatter[] other = new ForecastFormatter[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other[0] = ForecastFormatter.forThread();
+            }
+        });
+        thread.start();
+        thread.join();
+        assertSame(ForecastFormatter.forThread(), ForecastFormatter.forThread());
+        assertNotSame(ForecastFormatter.forThread(), other[0]);
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testSteadyStateAllocatesNothing() {
+        MatrixCursor cursor = createCursor();
+        ForecastFormatter formatter = new ForecastFormatter();
+        // The first pass formats the day labels
+        formatAll(formatter, cursor, ROWS / DAYS);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long length = formatAll(formatter, cursor, ROWS / DAYS);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertTrue(length > 0);
+        assertEquals("Error: formatting rows allocated", 0, allocations);
+        cursor.close();
+    }
+
+    private static long formatAll(ForecastFormatter formatter, MatrixCursor cursor,
+                                  int passes) {
+        long length = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                length += formatter.formatRow(cursor, (pass & 1) == 0).length();
+            }
+        }
+        return length;
+    }
+
+    // Days of the list projection, with some below freezing
+    private static MatrixCursor createCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "date", "short_desc", "max",
+                "min", "weather_id", "location_setting"});
+        for (int day = 0; day < DAYS; day++) {
+            cursor.addRow(new Object[]{day + 1, FIRST_DAY + day * DAY_IN_MILLIS,
+                    day % 2 == 0 ? "Clear" : "Light Snow", 12.6 - day * 2, -18.5 + day,
+                    800, "99705"});
+        }
+        return cursor;
+    }
+}
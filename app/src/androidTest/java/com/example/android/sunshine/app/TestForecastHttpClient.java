@@ -0,0 +1,112 @@
+package com.example.android.sunshine.app;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastBlock;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+public class TestForecastHttpClient extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastHttpClient.class.getSimpleName();
+
+    private StubForecastServer mServer;
+    private ForecastHttpClient mClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubForecastServer();
+        mServer.setBody(ForecastFixtures.LONDON_16_DAY);
+        mClient = new ForecastHttpClient(mServer.getBaseUri(), 5000, 5000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testConnectionIsReused() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            ForecastBlock block = fetch();
+            assertEquals(16, block.size);
+        }
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals("Error: the connection was not kept alive between requests",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testGzipIsNegotiated() throws IOException {
+        mServer.setGzip(true);
+        ForecastHttpClient.Exchange exchange = mClient.get(forecastUri(), null, null);
+        try {
+            assertEquals("gzip", mServer.getLastRequestHeaders().get("accept-encoding"));
+            ForecastBlockHandler handler =
+                    new ForecastBlockHandler(ForecastFixtures.LONDON_SETTING, 16);
+            ForecastJsonParser.parse(exchange.body, handler);
+            assertEquals(16, handler.getForecastBlock().size);
+
+            Log.d(LOG_TAG, "Gzipped exchange: " + exchange.timings);
+            assertTrue("Error: the response was not compressed on the wire",
+                    exchange.timings.bytesOnWire <
+                            ForecastFixtures.LONDON_16_DAY.getBytes("UTF-8").length);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public void testTimingsAreReported() throws IOException {
+        ForecastHttpClient.Exchange exchange = mClient.get(forecastUri(), null, null);
+        exchange.close();
+        assertEquals(HttpURLConnection.HTTP_OK, exchange.responseCode);
+        assertTrue(exchange.timings.connectNanos >= 0);
+        assertTrue(exchange.timings.firstByteNanos > 0);
+        assertTrue(exchange.timings.transferNanos > 0);
+        assertEquals(ForecastFixtures.LONDON_16_DAY.getBytes("UTF-8").length,
+                exchange.timings.bytesOnWire);
+    }
+
+    public void testPreconnectLeavesPooledConnection() throws IOException {
+        mClient.preconnect();
+        assertEquals(1, mServer.getConnectionCount());
+
+        fetch();
+        assertEquals("Error: the request did not reuse the preconnected socket",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testRequestsAreRateLimited() throws IOException {
+        // Every caller of the client shares its limit, not only the saved location fetches
+        mClient = new ForecastHttpClient(mServer.getBaseUri(), 5000, 5000,
+                new HostRateLimiter(5));
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            fetch();
+        }
+        // Three requests at 5 per second take at least 400 ms to send
+        assertTrue(System.nanoTime() - start >= 400 * 1000000L);
+    }
+
+    private Uri forecastUri() {
+        return mClient.buildForecastUri()
+                .appendQueryParameter("q", ForecastFixtures.LONDON_SETTING)
+                .appendQueryParameter("cnt", "16")
+                .build();
+    }
+
+    private ForecastBlock fetch() throws IOException {
+        ForecastHttpClient.Exchange exchange = mClient.get(forecastUri(), null, null);
+        try {
+            ForecastBlockHandler handler =
+                    new ForecastBlockHandler(ForecastFixtures.LONDON_SETTING, 16);
+            ForecastJsonParser.parse(exchange.body, handler);
+            return handler.getForecastBlock();
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastBlock;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Checks that the streaming parser produces exactly what the old org.json path produced.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public void testParityMountainView() throws Exception {
+        checkParity(ForecastFixtures.MOUNTAIN_VIEW_7_DAY, ForecastFixtures.MOUNTAIN_VIEW_SETTING, 7);
+    }
+
+    public void testParityLondon() throws Exception {
+        checkParity(ForecastFixtures.LONDON_16_DAY, ForecastFixtures.LONDON_SETTING, 16);
+    }
+
+    public void testCityReported() throws Exception {
+        final String[] cityName = new String[1];
+        final double[] coord = new double[2];
+        final long[] cityId = new long[1];
+        int days = ForecastJsonParser.parse(toStream(ForecastFixtures.LONDON_16_DAY),
+                new ForecastJsonParser.Handler() {
+                    @Override
+                    public void onCity(String name, double lat, double lon, long id) {
+                        cityName[0] = name;
+                        coord[0] = lat;
+                        coord[1] = lon;
+                        cityId[0] = id;
+                    }
+
+                    @Override
+                    public void onDay(int dayIndex, double pressure, int humidity,
+                                      double windSpeed, double windDirection, double high,
+                                      double low, String description, int weatherId) {
+                    }
+                });
+        assertEquals(16, days);
+        assertEquals("London", cityName[0]);
+        assertEquals(51.5085, coord[0]);
+        assertEquals(-0.1258, coord[1]);
+        assertEquals(2643743, cityId[0]);
+    }
+
+    public void testParseDocumentLeavesStreamOpen() throws Exception {
+        final boolean[] closed = new boolean[1];
+        InputStream in = new FilterInputStream(toStream(ForecastFixtures.LONDON_16_DAY)) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        ForecastBlockHandler handler = new ForecastBlockHandler(ForecastFixtures.LONDON_SETTING,
+                16);
+        assertEquals(16, ForecastJsonParser.parseDocument(in, handler));
+        assertFalse("Error: the caller's stream was closed before it could cache it", closed[0]);
+
+        try {
+            ForecastJsonParser.parseDocument(toStream(ForecastFixtures.LONDON_16_DAY + "{}"),
+                    new ForecastBlockHandler(ForecastFixtures.LONDON_SETTING, 16));
+            fail("Error: data after the document should be reported");
+        } catch (IOException expected) {
+            // a body with a trailing fragment is not a clean forecast
+        }
+    }
+
+    public void testMalformedInput() {
+        try {
+            ForecastJsonParser.parse(toStream("{\"list\":[{\"temp\":\"warm\"}]}"),
+                    new ForecastJsonParser.Handler() {
+                        @Override
+                        public void onCity(String name, double lat, double lon, long id) {
+                        }
+
+                        @Override
+                        public void onDay(int dayIndex, double pressure, int humidity,
+                                          double windSpeed, double windDirection, double high,
+                                          double low, String description, int weatherId) {
+                        }
+                    });
+            fail("Error: a malformed forecast should be reported as an IOException");
+        } catch (IOException e) {
+            assertNotNull("Error: the parser's own exception should be kept as the cause",
+                    e.getCause());
+        }
+    }
+
+    private void checkParity(String json, String locationSetting, int expectedDays)
+            throws Exception {
+        FetchWeatherTask fwt = new FetchWeatherTask(getContext());
+
+        Vector<ContentValues> expected = parseWithJsonObject(fwt, json, locationSetting);
+        ForecastBlock block = fwt.parseWeatherData(toStream(json), locationSetting, expectedDays);
+
+        assertEquals(expectedDays, expected.size());
+        assertEquals("Error: the streaming parser returned a different number of days",
+                expected.size(), block.size);
+
+        long locationId = expected.elementAt(0).getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        ContentValues[] actual = block.toContentValues(locationId);
+
+        for (int i = 0; i < expected.size(); i++) {
+            ContentValues expectedValues = expected.elementAt(i);
+            ContentValues actualValues = actual[i];
+            assertEquals("Error: day " + i + " has a different set of columns",
+                    expectedValues.size(), actualValues.size());
+            for (Map.Entry<String, Object> entry : expectedValues.valueSet()) {
+                String error = "Error: day " + i + " column " + entry.getKey() + " differs";
+                if (entry.getValue() instanceof Number) {
+                    assertEquals(error, ((Number) entry.getValue()).doubleValue(),
+                            actualValues.getAsDouble(entry.getKey()));
+                } else {
+                    assertEquals(error, entry.getValue(), actualValues.get(entry.getKey()));
+                }
+            }
+        }
+    }
+
+    private static InputStream toStream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    /*
+     * The org.json implementation FetchWeatherTask used before the streaming parser,
+     * kept here as the reference for the parity checks.
+     */
+    private static Vector<ContentValues> parseWithJsonObject(FetchWeatherTask fwt,
+                                                             String forecastJsonStr,
+                                                             String locationSetting)
+            throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        String cityName = cityJson.getString("name");
+
+        JSONObject cityCoord = cityJson.getJSONObject("coord");
+        double cityLatitude = cityCoord.getDouble("lat");
+        double cityLongitude = cityCoord.getDouble("lon");
+
+        long locationId = fwt.addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+
+        Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        dayTime = new Time();
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            long dateTime = dayTime.setJulianDay(julianStartDay + i);
+
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, dateTime);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt("humidity"));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble("pressure"));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble("speed"));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble("deg"));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble("max"));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble("min"));
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString("main"));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt("id"));
+
+            cVVector.add(weatherValues);
+        }
+        return cVVector;
+    }
+}
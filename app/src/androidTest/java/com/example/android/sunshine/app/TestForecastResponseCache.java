@@ -0,0 +1,127 @@
+package com.example.android.sunshine.app;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.ForecastBlock;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private StubForecastServer mServer;
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubForecastServer();
+        mServer.setBody(ForecastFixtures.MOUNTAIN_VIEW_7_DAY);
+        ForecastHttpClient client = new ForecastHttpClient(mServer.getBaseUri(), 5000, 5000);
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test_responses"), 4,
+                client);
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testCacheKeyIgnoresAppIdAndOrder() {
+        Uri first = Uri.parse("http://api.openweathermap.org/data/2.5/forecast/daily?" +
+                "q=94043&mode=json&units=metric&cnt=7&APPID=secret");
+        Uri second = Uri.parse("http://api.openweathermap.org/data/2.5/forecast/daily?" +
+                "cnt=7&units=metric&q=94043&mode=json&APPID=other");
+        assertEquals(ForecastResponseCache.cacheKey(first), ForecastResponseCache.cacheKey(second));
+        assertFalse("Error: the API key should not be part of the cache key",
+                ForecastResponseCache.cacheKey(first).contains("secret"));
+
+        Uri otherDays = Uri.parse("http://api.openweathermap.org/data/2.5/forecast/daily?" +
+                "q=94043&mode=json&units=metric&cnt=14&APPID=secret");
+        assertFalse(ForecastResponseCache.cacheKey(first).equals(
+                ForecastResponseCache.cacheKey(otherDays)));
+    }
+
+    public void testNotModifiedReusesCachedBody() throws IOException {
+        ForecastBlock fetched = fetch(ForecastResponseCache.SOURCE_NETWORK);
+        ForecastBlock revalidated = fetch(ForecastResponseCache.SOURCE_REVALIDATED);
+
+        assertEquals(StubForecastServer.ETAG,
+                mServer.getLastRequestHeaders().get("if-none-match"));
+        assertEquals(StubForecastServer.LAST_MODIFIED,
+                mServer.getLastRequestHeaders().get("if-modified-since"));
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(1, mCache.getRevalidateCount());
+
+        assertEquals(fetched.size, revalidated.size);
+        assertEquals(fetched.cityName, revalidated.cityName);
+        for (int i = 0; i < fetched.size; i++) {
+            assertEquals(fetched.maxTemp[i], revalidated.maxTemp[i]);
+            assertEquals(fetched.getDescription(i), revalidated.getDescription(i));
+        }
+    }
+
+    public void testChangedResponseReplacesEntry() throws IOException {
+        fetch(ForecastResponseCache.SOURCE_NETWORK);
+
+        mServer.setEtag("\"forecast-2\"");
+        mServer.setBody(ForecastFixtures.LONDON_16_DAY);
+        ForecastBlock changed = fetch(ForecastResponseCache.SOURCE_NETWORK);
+        assertEquals("London", changed.cityName);
+
+        ForecastBlock revalidated = fetch(ForecastResponseCache.SOURCE_REVALIDATED);
+        assertEquals("London", revalidated.cityName);
+    }
+
+    public void testFreshResponseSkipsNetwork() throws IOException {
+        mServer.setCacheControl("max-age=600");
+        fetch(ForecastResponseCache.SOURCE_NETWORK);
+        fetch(ForecastResponseCache.SOURCE_CACHE);
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    public void testMalformedResponseIsNotCached() throws IOException {
+        mServer.setBody("{\"city\": {\"name\": ");
+        try {
+            fetch(ForecastResponseCache.SOURCE_NETWORK);
+            fail("Error: a truncated body should not parse");
+        } catch (IOException expected) {
+            // the body is dropped instead of being cached
+        }
+
+        // Without a cached body there is nothing to revalidate against
+        mServer.setBody(ForecastFixtures.MOUNTAIN_VIEW_7_DAY);
+        fetch(ForecastResponseCache.SOURCE_NETWORK);
+        assertNull("Error: the malformed body was kept for revalidation",
+                mServer.getLastRequestHeaders().get("if-none-match"));
+        assertEquals(0, mServer.getNotModifiedCount());
+
+        fetch(ForecastResponseCache.SOURCE_REVALIDATED);
+    }
+
+    private ForecastBlock fetch(int expectedSource) throws IOException {
+        Uri uri = mServer.getBaseUri().buildUpon()
+                .appendQueryParameter("q", ForecastFixtures.MOUNTAIN_VIEW_SETTING)
+                .appendQueryParameter("cnt", "7")
+                .build();
+        ForecastResponseCache.Response response = mCache.open(uri);
+        try {
+            assertEquals("Error: unexpected response source", expectedSource, response.source);
+            ForecastBlockHandler handler =
+                    new ForecastBlockHandler(ForecastFixtures.MOUNTAIN_VIEW_SETTING, 7);
+            ForecastJsonParser.parseDocument(response.body, handler);
+            ForecastBlock block = handler.getForecastBlock();
+            response.markComplete();
+            return block;
+        } finally {
+            response.close();
+        }
+    }
+}
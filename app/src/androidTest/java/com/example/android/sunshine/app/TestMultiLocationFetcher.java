@@ -0,0 +1,174 @@
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestMultiLocationFetcher extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMultiLocationFetcher.class.getSimpleName();
+
+    private static final int NUM_DAYS = 7;
+    private static final int CONCURRENCY = 4;
+    private static final long SERVER_DELAY_MILLIS = 200;
+
+    private StubForecastServer mServer;
+    private ForecastHttpClient mClient;
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mServer = new StubForecastServer();
+        mServer.setBody(ForecastFixtures.MOUNTAIN_VIEW_7_DAY);
+        mServer.setDelayMillis(SERVER_DELAY_MILLIS);
+        mClient = new ForecastHttpClient(mServer.getBaseUri(), 5000, 5000);
+        mCache = new ForecastResponseCache(
+                new File(mContext.getCacheDir(), "test_multi_location"), 64, mClient);
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testStoresEveryLocation() throws Exception {
+        List<String> locations = locations("store", 6);
+        MultiLocationFetcher.Result result = createFetcher(CONCURRENCY)
+                .fetchAll(locations, NUM_DAYS);
+
+        assertEquals(6, result.fetched);
+        assertEquals(0, result.failed);
+        assertTrue(result.failedLocations.isEmpty());
+        assertEquals(6 * NUM_DAYS, result.rowsStored);
+        for (String location : locations) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(location),
+                    new String[]{LocationEntry.COLUMN_FETCHED_AT, LocationEntry.COLUMN_CITY_ID},
+                    null, null, null);
+            assertEquals(NUM_DAYS, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertTrue("Error: the location's fetched_at was not stamped",
+                    cursor.getLong(0) > 0);
+            assertEquals(5375480, cursor.getLong(1));
+            cursor.close();
+        }
+
+        // The next refresh asks for the cities by id
+        createFetcher(CONCURRENCY).fetchAll(locations.subList(0, 1), NUM_DAYS);
+        String request = mServer.getLastRequestHeaders().get(":request");
+        assertTrue(request, request.contains("id=5375480"));
+
+        RefreshPolicy policy = new RefreshPolicy(60 * 60 * 1000);
+        assertTrue("Error: freshly fetched locations are due again",
+                MultiLocationFetcher.loadSavedLocations(mContext, policy, false).isEmpty());
+        assertEquals(6, MultiLocationFetcher.loadSavedLocations(mContext, policy, true).size());
+    }
+
+    public void testConcurrencyLimit() throws Exception {
+        long serial = createFetcher(1).fetchAll(locations("serial", 4), NUM_DAYS)
+                .elapsedNanos;
+        long parallel = createFetcher(CONCURRENCY).fetchAll(locations("parallel", 4),
+                NUM_DAYS).elapsedNanos;
+        assertTrue("Error: " + CONCURRENCY + " workers were not faster than one",
+                parallel < serial / 2);
+    }
+
+    public void testHostRateLimit() throws Exception {
+        mServer.setDelayMillis(0);
+        ForecastHttpClient client = new ForecastHttpClient(mServer.getBaseUri(), 5000, 5000,
+                new HostRateLimiter(5));
+        ForecastResponseCache cache = new ForecastResponseCache(
+                new File(mContext.getCacheDir(), "test_rate_limited"), 64, client);
+        cache.clear();
+        try {
+            // Five requests at 5 per second take at least 800 ms to send
+            long elapsed = createFetcher(CONCURRENCY, client, cache)
+                    .fetchAll(locations("limited", 5), NUM_DAYS).elapsedNanos;
+            assertTrue(elapsed >= 800 * 1000000L);
+        } finally {
+            cache.clear();
+        }
+    }
+
+    // Logs locations per second for a growing number of locations
+    public void testThroughputScalesWithLocations() throws Exception {
+        for (int n = 1; n <= 16; n *= 2) {
+            MultiLocationFetcher.Result result = createFetcher(CONCURRENCY)
+                    .fetchAll(locations("scale" + n + "-", n), NUM_DAYS);
+            assertEquals(n, result.fetched);
+            Log.d(LOG_TAG, n + " locations, " + CONCURRENCY + " at a time: " +
+                    (result.elapsedNanos / 1000000) + " ms, " +
+                    (n * 1000000000L / result.elapsedNanos) + " locations/s");
+        }
+    }
+
+    public void testCancelAbortsInFlightFetches() throws Exception {
+        mServer.setDelayMillis(30000);
+        final MultiLocationFetcher fetcher = createFetcher(CONCURRENCY);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        FetchScheduler.Task<Void> task = new FetchScheduler(1).submit(
+                new FetchScheduler.Task<Void>() {
+                    @Override
+                    protected Void doInBackground() throws Exception {
+                        try {
+                            fetcher.fetchAll(locations("cancelled", 6), NUM_DAYS);
+                        } catch (Exception e) {
+                            failure.set(e);
+                        } finally {
+                            finished.countDown();
+                        }
+                        return null;
+                    }
+                });
+        SystemClock.sleep(500);
+        int requests = mServer.getRequestCount();
+        task.cancel();
+        assertTrue("Error: cancelling did not stop the fetches",
+                finished.await(5, TimeUnit.SECONDS));
+        assertTrue(failure.get() instanceof InterruptedIOException);
+
+        // The queued locations were dropped rather than fetched
+        SystemClock.sleep(500);
+        assertEquals(requests, mServer.getRequestCount());
+        assertTrue(requests <= CONCURRENCY);
+    }
+
+    private MultiLocationFetcher createFetcher(int concurrency) {
+        return createFetcher(concurrency, mClient, mCache);
+    }
+
+    private MultiLocationFetcher createFetcher(int concurrency, ForecastHttpClient client,
+                                               ForecastResponseCache cache) {
+        return new MultiLocationFetcher(mContext, new ForecastFetchCoordinator(client, cache),
+                new FetchScheduler(concurrency));
+    }
+
+    private static List<String> locations(String prefix, int count) {
+        List<String> locations = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(prefix + i);
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+public class TestRefreshPolicy extends AndroidTestCase {
+
+    private static final long TTL = 60 * 60 * 1000;
+    private static final long NOW = 1419033600000L;
+
+    public void testEvaluate() {
+        RefreshPolicy policy = new RefreshPolicy(TTL);
+
+        assertEquals(RefreshPolicy.MISSING, policy.evaluate(0, NOW));
+        assertEquals(RefreshPolicy.FRESH, policy.evaluate(NOW, NOW));
+        assertEquals(RefreshPolicy.FRESH, policy.evaluate(NOW - TTL + 1, NOW));
+        assertEquals(RefreshPolicy.STALE, policy.evaluate(NOW - TTL, NOW));
+        assertEquals(RefreshPolicy.STALE, policy.evaluate(NOW - 10 * TTL, NOW));
+
+        // Stored in the future means the clock changed, don't trust it
+        assertEquals(RefreshPolicy.STALE, policy.evaluate(NOW + 1000, NOW));
+    }
+
+    public void testTtlFromResources() {
+        RefreshPolicy policy = RefreshPolicy.fromResources(mContext);
+        assertEquals(mContext.getResources().getInteger(R.integer.forecast_ttl_minutes) *
+                60 * 1000L, policy.getTtlMillis());
+    }
+}
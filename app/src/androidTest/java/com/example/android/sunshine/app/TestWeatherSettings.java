@@ -0,0 +1,83 @@
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestWeatherSettings extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherSettings.class.getSimpleName();
+
+    private static final int ROWS = 10000;
+
+    private SharedPreferences mPrefs;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key), mSavedUnits)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsThePreferences() {
+        final WeatherSettings before = WeatherSettings.get(mContext);
+        final String imperial = mContext.getString(R.string.pref_units_imperial);
+        final String metric = mContext.getString(R.string.pref_units_metric);
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key),
+                before.isMetric ? imperial : metric).commit();
+
+        // Listeners are called on the main thread
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return WeatherSettings.get(mContext).isMetric != before.isMetric;
+            }
+        }.run();
+        assertEquals(before.location, WeatherSettings.get(mContext).location);
+        assertEquals("Error: a settings snapshot changed after it was handed out",
+                before.isMetric, !WeatherSettings.get(mContext).isMetric);
+    }
+
+    // Formats the same row ROWS times reading the units each way, and logs the time per row
+    public void testFormattingCostPerRow() {
+        WeatherSettings.get(mContext);
+        ForecastFormatter formatter = new ForecastFormatter();
+
+        long length = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            length += formatter.formatTemperature(21.5, readIsMetric()).length();
+        }
+        long prefsNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            length -= formatter.formatTemperature(21.5, Utility.isMetric(mContext)).length();
+        }
+        long snapshotNanos = System.nanoTime() - start;
+
+        assertEquals(0, length);
+        Log.d(LOG_TAG, ROWS + " rows: reading preferences " + (prefsNanos / ROWS) +
+                " ns/row, settings snapshot " + (snapshotNanos / ROWS) + " ns/row");
+    }
+
+    // How the units were read for every row before the snapshot
+    private boolean readIsMetric() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        return prefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric))
+                .equals(mContext.getString(R.string.pref_units_metric));
+    }
+}
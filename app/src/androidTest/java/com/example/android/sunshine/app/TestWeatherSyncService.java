@@ -0,0 +1,67 @@
+package com.example.android.sunshine.app;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+public class TestWeatherSyncService extends AndroidTestCase {
+
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    public void testJitterStaysWithinBounds() {
+        Random random = new Random(42);
+        long interval = 180 * MINUTE_IN_MILLIS;
+        long jitter = 20 * MINUTE_IN_MILLIS;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long delay = WeatherSyncService.nextDelayMillis(interval, jitter, random);
+            assertTrue(delay >= interval - jitter);
+            assertTrue(delay <= interval + jitter);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue("Error: runs are not spread over the jitter window",
+                max - min > jitter);
+
+        assertEquals(interval, WeatherSyncService.nextDelayMillis(interval, 0, random));
+        assertEquals("Error: a sync was scheduled less than a minute out", MINUTE_IN_MILLIS,
+                WeatherSyncService.nextDelayMillis(0, 0, random));
+    }
+
+    public void testRunIsRecorded() {
+        SharedPreferences stats = mContext.getSharedPreferences("test_weather_sync_stats",
+                Context.MODE_PRIVATE);
+        stats.edit().clear().commit();
+
+        WeatherSyncService.recordRun(stats, 1000, 250, 4096, 3, 1);
+        WeatherSyncService.recordRun(stats, 2000, 120, 2048, 3, 0);
+
+        assertEquals(2000, stats.getLong(WeatherSyncService.STAT_LAST_RUN_AT, 0));
+        assertEquals(120, stats.getLong(WeatherSyncService.STAT_LAST_DURATION_MS, 0));
+        assertEquals(2048, stats.getLong(WeatherSyncService.STAT_LAST_BYTES, 0));
+        assertEquals(3, stats.getInt(WeatherSyncService.STAT_LAST_LOCATIONS, 0));
+        assertEquals(0, stats.getInt(WeatherSyncService.STAT_LAST_FAILED, -1));
+        assertEquals(2, stats.getInt(WeatherSyncService.STAT_RUNS, 0));
+        stats.edit().clear().commit();
+    }
+
+    public void testScheduleSetsTheAlarm() {
+        WeatherSyncService.schedule(mContext);
+        assertNotNull(SyncReceiver.createAlarmIntent(mContext,
+                PendingIntent.FLAG_NO_CREATE));
+    }
+
+    public void testTurningSyncOffCancelsTheAlarm() {
+        WeatherSyncService.setEnabled(mContext, false);
+        assertNull("Error: the alarm survived turning the sync off",
+                SyncReceiver.createAlarmIntent(mContext, PendingIntent.FLAG_NO_CREATE));
+
+        WeatherSyncService.setEnabled(mContext, true);
+        assertNotNull(SyncReceiver.createAlarmIntent(mContext,
+                PendingIntent.FLAG_NO_CREATE));
+    }
+}
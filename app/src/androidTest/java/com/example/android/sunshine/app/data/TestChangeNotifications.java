@@ -0,0 +1,260 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestChangeNotifications extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+
+    // Long enough for any notification still held in a window to have been sent
+    private static final long SETTLE_MILLIS = ChangeNotificationBatcher.DEFAULT_WINDOW_MILLIS * 5;
+
+    private long mLocationRowId;
+    private long mOtherLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mLocationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        mOtherLocationRowId = insertLocation(OTHER_LOCATION);
+        SystemClock.sleep(SETTLE_MILLIS);
+    }
+
+    public void testBulkInsertNotifiesOnlyTheLocationWritten() {
+        CountingObserver written = register(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        CountingObserver other = register(WeatherEntry.buildWeatherLocation(OTHER_LOCATION));
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(mLocationRowId));
+
+        written.waitForNotificationOrFail();
+        SystemClock.sleep(SETTLE_MILLIS);
+        assertEquals("Error: ten rows should wake the location's observers once",
+                1, written.count());
+        assertEquals("Error: another location's observers were woken", 0, other.count());
+        unregister(written, other);
+    }
+
+    public void testUnchangedBlockOnlyRestamps() {
+        CountingObserver written = register(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        insertBlock(TestUtilities.TEST_DATE);
+        written.waitForNotificationOrFail();
+        SystemClock.sleep(SETTLE_MILLIS);
+        assertEquals(1, written.count());
+
+        // Load the location into the forecast store, then store the same forecast again
+        assertEquals(TestUtilities.TEST_DATE, queryFetchedAt());
+        insertBlock(TestUtilities.TEST_DATE + 1);
+        SystemClock.sleep(SETTLE_MILLIS);
+        assertEquals("Error: an unchanged forecast woke the location's observers",
+                1, written.count());
+        assertEquals("Error: the stored snapshot kept the old fetched_at",
+                TestUtilities.TEST_DATE + 1, queryFetchedAt());
+        unregister(written);
+    }
+
+    public void testSingleInsertsShareAWindow() {
+        CountingObserver written = register(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+
+        for (ContentValues values : TestProvider.createBulkInsertWeatherValues(mLocationRowId)) {
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+        }
+
+        written.waitForNotificationOrFail();
+        SystemClock.sleep(SETTLE_MILLIS);
+        assertTrue("Error: single inserts were notified one by one", written.count() < 10);
+        unregister(written);
+    }
+
+    public void testApplyBatchNotifiesEachLocationOnce() throws Exception {
+        CountingObserver written = register(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        CountingObserver other = register(WeatherEntry.buildWeatherLocation(OTHER_LOCATION));
+
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : TestProvider.createBulkInsertWeatherValues(mLocationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        for (ContentValues values :
+                TestProvider.createBulkInsertWeatherValues(mOtherLocationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        written.waitForNotificationOrFail();
+        other.waitForNotificationOrFail();
+        SystemClock.sleep(SETTLE_MILLIS);
+        assertEquals(1, written.count());
+        assertEquals(1, other.count());
+        unregister(written, other);
+    }
+
+    public void testDeleteNotifiesTheLocationsItTouched() {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(mLocationRowId));
+        SystemClock.sleep(SETTLE_MILLIS);
+
+        CountingObserver written = register(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        CountingObserver other = register(WeatherEntry.buildWeatherLocation(OTHER_LOCATION));
+
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(mLocationRowId)});
+        assertTrue(deleted > 0);
+
+        written.waitForNotificationOrFail();
+        SystemClock.sleep(SETTLE_MILLIS);
+        assertEquals(0, other.count());
+        unregister(written, other);
+    }
+
+    public void testAncestorCoversDescendants() {
+        Uri location = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri day = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        Set<Uri> uris = new LinkedHashSet<Uri>(Arrays.asList(day, location,
+                WeatherEntry.buildWeatherLocation(OTHER_LOCATION), LocationEntry.CONTENT_URI));
+
+        assertEquals(Arrays.asList(location, WeatherEntry.buildWeatherLocation(OTHER_LOCATION),
+                LocationEntry.CONTENT_URI), ChangeNotificationBatcher.withoutDescendants(uris));
+
+        uris.add(WeatherEntry.CONTENT_URI);
+        assertEquals(Arrays.asList(LocationEntry.CONTENT_URI, WeatherEntry.CONTENT_URI),
+                ChangeNotificationBatcher.withoutDescendants(uris));
+    }
+
+    public void testBatcherMergesRepeatedChanges() {
+        ChangeNotificationBatcher batcher = new ChangeNotificationBatcher(
+                mContext.getContentResolver(), ChangeNotificationBatcher.DEFAULT_WINDOW_MILLIS);
+        Uri location = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+        batcher.beginBatch();
+        batcher.beginBatch();
+        for (int i = 0; i < 5; i++) {
+            batcher.notifyChange(location);
+        }
+        batcher.endBatch();
+        assertEquals("Error: an inner batch sent its changes", 0, batcher.getNotifyCount());
+        batcher.endBatch();
+        assertEquals(5, batcher.getChangeCount());
+        assertEquals(1, batcher.getNotifyCount());
+
+        for (int i = 0; i < 5; i++) {
+            batcher.notifyChange(location);
+        }
+        SystemClock.sleep(SETTLE_MILLIS);
+        assertEquals(10, batcher.getChangeCount());
+        assertEquals(2, batcher.getNotifyCount());
+        batcher.close();
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        return Long.parseLong(uri.getLastPathSegment());
+    }
+
+    private void insertBlock(long fetchedAt) {
+        Bundle extras = TestWeatherIngester.createBlock(7).toBundle();
+        extras.putLong(WeatherContract.EXTRA_LOCATION_ID, mLocationRowId);
+        extras.putLong(WeatherContract.EXTRA_FETCHED_AT, fetchedAt);
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BLOCK, null, extras);
+    }
+
+    private long queryFetchedAt() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{LocationEntry.COLUMN_FETCHED_AT}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private CountingObserver register(Uri uri) {
+        CountingObserver observer = CountingObserver.create();
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        return observer;
+    }
+
+    private void unregister(CountingObserver... observers) {
+        for (CountingObserver observer : observers) {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observer.mThread.quit();
+        }
+    }
+
+    // Counts every notification rather than only noting that one arrived
+    static class CountingObserver extends ContentObserver {
+        final HandlerThread mThread;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        static CountingObserver create() {
+            HandlerThread thread = new HandlerThread("CountingObserverThread");
+            thread.start();
+            return new CountingObserver(thread);
+        }
+
+        private CountingObserver(HandlerThread thread) {
+            super(new Handler(thread.getLooper()));
+            mThread = thread;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mCount.incrementAndGet();
+        }
+
+        int count() {
+            return mCount.get();
+        }
+
+        void waitForNotificationOrFail() {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mCount.get() > 0;
+                }
+            }.run();
+        }
+    }
+}
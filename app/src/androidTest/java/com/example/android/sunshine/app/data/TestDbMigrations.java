@@ -0,0 +1,179 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.FetchJobEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final int WEATHER_ROWS = 20;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The schema as WeatherDbHelper created it at version 2
+    private static final String V2_CREATE_LOCATION = "CREATE TABLE location(" +
+            "_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL );";
+    private static final String V2_CREATE_WEATHER = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testEveryVersionHasAStep() {
+        for (int version = 2; version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            List<WeatherDbMigrations.Step> path =
+                    WeatherDbMigrations.path(version, WeatherDbHelper.DATABASE_VERSION);
+            assertNotNull("Error: no migration from version " + version, path);
+            assertEquals(WeatherDbHelper.DATABASE_VERSION - version, path.size());
+            for (int i = 0; i < path.size(); i++) {
+                assertEquals(version + i, path.get(i).fromVersion);
+            }
+        }
+        assertNull(WeatherDbMigrations.path(1, WeatherDbHelper.DATABASE_VERSION));
+    }
+
+    public void testUpgradeFromVersion2KeepsRows() {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        List<ContentValues> weather = new ArrayList<ContentValues>();
+        long locationRowId = createVersion2Database(location, weather);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+        Cursor locationCursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null,
+                null, null);
+        TestUtilities.validateCursor("testUpgradeFromVersion2KeepsRows location",
+                locationCursor, location);
+        locationCursor.close();
+        assertEquals("Error: a migrated location should never have been fetched", 0,
+                DatabaseUtils.longForQuery(db, "SELECT " + LocationEntry.COLUMN_FETCHED_AT +
+                        " FROM " + LocationEntry.TABLE_NAME, null));
+
+        assertEquals(WEATHER_ROWS, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        Cursor weatherCursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        weatherCursor.moveToFirst();
+        for (int i = 0; i < WEATHER_ROWS; i++, weatherCursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testUpgradeFromVersion2KeepsRows day " + i,
+                    weatherCursor, weather.get(i));
+        }
+        weatherCursor.close();
+
+        // The unique key no longer replaces rows, the ingester upserts instead
+        ContentValues duplicate = new ContentValues(weather.get(0));
+        duplicate.remove(WeatherEntry._ID);
+        try {
+            db.insertOrThrow(WeatherEntry.TABLE_NAME, null, duplicate);
+            fail("Error: a duplicate day was accepted after the upgrade");
+        } catch (SQLiteConstraintException e) {
+            // expected
+        }
+        assertEquals(WEATHER_ROWS, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)}));
+        db.close();
+    }
+
+    public void testUpgradedSchemaMatchesFreshSchema() {
+        SQLiteDatabase fresh = new WeatherDbHelper(mContext).getWritableDatabase();
+        String freshLocation = describeColumns(fresh, LocationEntry.TABLE_NAME);
+        String freshWeather = describeColumns(fresh, WeatherEntry.TABLE_NAME);
+        String freshFetchJob = describeColumns(fresh, FetchJobEntry.TABLE_NAME);
+        String freshIndexes = describeIndexes(fresh);
+        fresh.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        createVersion2Database(TestUtilities.createNorthPoleLocationValues(),
+                new ArrayList<ContentValues>());
+        SQLiteDatabase upgraded = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals(freshLocation, describeColumns(upgraded, LocationEntry.TABLE_NAME));
+        assertEquals(freshWeather, describeColumns(upgraded, WeatherEntry.TABLE_NAME));
+        assertEquals(freshFetchJob, describeColumns(upgraded, FetchJobEntry.TABLE_NAME));
+        assertEquals(freshIndexes, describeIndexes(upgraded));
+        upgraded.close();
+    }
+
+    // Writes a version 2 database holding the location and WEATHER_ROWS days for it, which
+    // are added to weather
+    private long createVersion2Database(ContentValues location, List<ContentValues> weather) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        db.execSQL(V2_CREATE_LOCATION);
+        db.execSQL(V2_CREATE_WEATHER);
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, location);
+        assertTrue(locationRowId != -1);
+
+        long date = TestUtilities.TEST_DATE;
+        for (int i = 0; i < WEATHER_ROWS; i++, date += DAY_IN_MILLIS) {
+            ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+            values.put(WeatherEntry.COLUMN_DATE, date);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0 + i);
+            long rowId = db.insert(WeatherEntry.TABLE_NAME, null, values);
+            assertTrue(rowId != -1);
+            values.put(WeatherEntry._ID, rowId);
+            weather.add(values);
+        }
+        db.setVersion(2);
+        db.close();
+        return locationRowId;
+    }
+
+    // Column names, types, constraints and defaults in table order
+    private static String describeColumns(SQLiteDatabase db, String table) {
+        StringBuilder description = new StringBuilder();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        while (cursor.moveToNext()) {
+            description.append(cursor.getString(cursor.getColumnIndex("name"))).append(' ')
+                    .append(cursor.getString(cursor.getColumnIndex("type"))).append(' ')
+                    .append(cursor.getInt(cursor.getColumnIndex("notnull"))).append(' ')
+                    .append(cursor.getString(cursor.getColumnIndex("dflt_value"))).append(' ')
+                    .append(cursor.getInt(cursor.getColumnIndex("pk"))).append('\n');
+        }
+        cursor.close();
+        return description.toString();
+    }
+
+    // The indexes created by name, each with its columns in order.  SQLite's own indexes for
+    // the unique keys are left out, their names depend on how the table was built
+    private static String describeIndexes(SQLiteDatabase db) {
+        StringBuilder description = new StringBuilder();
+        Cursor indexes = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' " +
+                "AND sql IS NOT NULL ORDER BY name", null);
+        while (indexes.moveToNext()) {
+            String name = indexes.getString(0);
+            description.append(name).append(':');
+            Cursor columns = db.rawQuery("PRAGMA index_info(" + name + ")", null);
+            while (columns.moveToNext()) {
+                description.append(' ')
+                        .append(columns.getString(columns.getColumnIndex("name")));
+            }
+            columns.close();
+            description.append('\n');
+        }
+        indexes.close();
+        return description.toString();
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.FetchJobEntry;
+
+public class TestFetchJobStore extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+    private static final int DAYS = 14;
+    private static final long STARTED_AT = 1000000L;
+
+    private SQLiteDatabase mDb;
+
+    // The provider may hold the database open, so the jobs are deleted rather than the file
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mDb.delete(FetchJobEntry.TABLE_NAME, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.delete(FetchJobEntry.TABLE_NAME, null, null);
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testEnqueueDedupes() {
+        FetchJobStore store = new FetchJobStore(mDb, STARTED_AT);
+        Bundle first = store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT);
+        Bundle second = store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT + 1);
+        Bundle otherDays = store.enqueue(TestUtilities.TEST_LOCATION, 7, 0, STARTED_AT + 2);
+
+        assertFalse(first.getBoolean(WeatherContract.RESULT_DEDUPED));
+        assertTrue("Error: the same fetch was queued twice",
+                second.getBoolean(WeatherContract.RESULT_DEDUPED));
+        assertEquals(first.getLong(WeatherContract.RESULT_JOB_ID),
+                second.getLong(WeatherContract.RESULT_JOB_ID));
+        assertFalse(otherDays.getBoolean(WeatherContract.RESULT_DEDUPED));
+        assertEquals(2, countJobs());
+
+        // Running counts as queued too
+        store.claim(TestUtilities.TEST_LOCATION, DAYS, false, STARTED_AT + 3);
+        assertTrue(store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT + 4)
+                .getBoolean(WeatherContract.RESULT_DEDUPED));
+    }
+
+    public void testClaimIsExclusive() {
+        FetchJobStore store = new FetchJobStore(mDb, STARTED_AT);
+        store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT);
+
+        FetchJobStore.Job job = store.claim(null, 0, false, STARTED_AT + 1);
+        assertNotNull(job);
+        assertEquals(TestUtilities.TEST_LOCATION, job.locationSetting);
+        assertEquals(DAYS, job.numDays);
+        assertEquals(0, job.attempts);
+
+        assertNull("Error: a running job was claimed again",
+                store.claim(null, 0, false, STARTED_AT + 2));
+        assertNull(store.claim(TestUtilities.TEST_LOCATION, DAYS, true, STARTED_AT + 2));
+
+        assertEquals(FetchJobEntry.STATE_DONE, store.finish(job.id, job.claimedAt,
+                FetchJobEntry.OUTCOME_DONE, null, STARTED_AT + 3));
+        assertEquals(0, countJobs());
+    }
+
+    public void testClaimsDueJobsInOrder() {
+        FetchJobStore store = new FetchJobStore(mDb, STARTED_AT);
+        store.enqueue(OTHER_LOCATION, DAYS, 1, STARTED_AT);
+        store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT + 1);
+
+        FetchJobStore.Job job = store.claim(null, 0, false, STARTED_AT + 2);
+        assertEquals(TestUtilities.TEST_LOCATION, job.locationSetting);
+        assertNull("Error: a job waiting to be retried was claimed early",
+                store.claim(null, 0, false, STARTED_AT + 2));
+        assertEquals(STARTED_AT + FetchJobStore.backoffMillis(1), store.getNextRunAt());
+        assertEquals(OTHER_LOCATION, store.claim(null, 0, false,
+                STARTED_AT + FetchJobStore.backoffMillis(1)).locationSetting);
+    }
+
+    public void testBackoffDoubles() {
+        assertEquals(0, FetchJobStore.backoffMillis(0));
+        assertEquals(FetchJobStore.BASE_BACKOFF_MILLIS, FetchJobStore.backoffMillis(1));
+        assertEquals(2 * FetchJobStore.BASE_BACKOFF_MILLIS, FetchJobStore.backoffMillis(2));
+        assertEquals(4 * FetchJobStore.BASE_BACKOFF_MILLIS, FetchJobStore.backoffMillis(3));
+        assertEquals(FetchJobStore.MAX_BACKOFF_MILLIS, FetchJobStore.backoffMillis(40));
+        assertEquals(FetchJobStore.MAX_BACKOFF_MILLIS,
+                FetchJobStore.backoffMillis(Integer.MAX_VALUE));
+    }
+
+    public void testFailedJobIsRetriedAfterBackoff() {
+        FetchJobStore store = new FetchJobStore(mDb, STARTED_AT);
+        store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT);
+
+        long now = STARTED_AT;
+        for (int failures = 1; failures <= 3; failures++) {
+            FetchJobStore.Job job = store.claim(null, 0, false, now);
+            assertNotNull("Error: the job was not due after failure " + (failures - 1), job);
+            assertEquals(failures - 1, job.attempts);
+            assertEquals(FetchJobEntry.STATE_PENDING, store.finish(job.id, job.claimedAt,
+                    FetchJobEntry.OUTCOME_FAILED, "timeout", now));
+
+            long delay = FetchJobStore.backoffMillis(failures);
+            assertNull(store.claim(null, 0, false, now + delay - 1));
+            now += delay;
+        }
+
+        Cursor cursor = mDb.query(FetchJobEntry.TABLE_NAME,
+                new String[]{FetchJobEntry.COLUMN_ATTEMPTS, FetchJobEntry.COLUMN_LAST_ERROR},
+                null, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(3, cursor.getInt(0));
+        assertEquals("timeout", cursor.getString(1));
+        cursor.close();
+    }
+
+    public void testRunNowSkipsBackoff() {
+        FetchJobStore store = new FetchJobStore(mDb, STARTED_AT);
+        store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 2, STARTED_AT);
+
+        assertNull(store.claim(TestUtilities.TEST_LOCATION, DAYS, false, STARTED_AT));
+        FetchJobStore.Job job = store.claim(TestUtilities.TEST_LOCATION, DAYS, true, STARTED_AT);
+        assertNotNull("Error: an explicit refresh waited for the backoff", job);
+        assertEquals(2, job.attempts);
+    }
+
+    public void testGivesUpAfterMaxAttempts() {
+        FetchJobStore store = new FetchJobStore(mDb, STARTED_AT);
+        store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT);
+
+        int state = -1;
+        for (int i = 0; i < FetchJobStore.MAX_ATTEMPTS; i++) {
+            FetchJobStore.Job job = store.claim(TestUtilities.TEST_LOCATION, DAYS, true,
+                    STARTED_AT + i);
+            state = store.finish(job.id, job.claimedAt, FetchJobEntry.OUTCOME_FAILED, null,
+                    STARTED_AT + i);
+        }
+        assertEquals(FetchJobEntry.STATE_FAILED, state);
+        assertNull(store.claim(TestUtilities.TEST_LOCATION, DAYS, true, Long.MAX_VALUE / 2));
+
+        // Queueing it again starts over
+        assertFalse(store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT + 100)
+                .getBoolean(WeatherContract.RESULT_DEDUPED));
+        FetchJobStore.Job job = store.claim(null, 0, false, STARTED_AT + 100);
+        assertNotNull(job);
+        assertEquals(0, job.attempts);
+    }
+
+    public void testReleaseDoesNotCountAsFailure() {
+        FetchJobStore store = new FetchJobStore(mDb, STARTED_AT);
+        store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT);
+        FetchJobStore.Job job = store.claim(null, 0, false, STARTED_AT);
+
+        assertEquals(FetchJobEntry.STATE_PENDING, store.finish(job.id, job.claimedAt,
+                FetchJobEntry.OUTCOME_RELEASED, null, STARTED_AT + 1));
+        FetchJobStore.Job again = store.claim(null, 0, false, STARTED_AT + 1);
+        assertNotNull(again);
+        assertEquals(0, again.attempts);
+    }
+
+    public void testRecoversJobsOfEarlierProcess() {
+        FetchJobStore before = new FetchJobStore(mDb, STARTED_AT);
+        before.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT);
+        FetchJobStore.Job lost = before.claim(null, 0, false, STARTED_AT + 10);
+
+        // The process died mid-fetch, the next one starts
+        FetchJobStore after = new FetchJobStore(mDb, STARTED_AT + 20);
+        FetchJobStore.Job recovered = after.claim(null, 0, false, STARTED_AT + 21);
+        assertNotNull("Error: a job left running by a dead process was not recovered",
+                recovered);
+        assertEquals(lost.id, recovered.id);
+        assertEquals(1, recovered.attempts);
+        assertTrue(recovered.claimedAt > lost.claimedAt);
+
+        // The old claim can't finish the job any more
+        assertEquals(-1, after.finish(lost.id, lost.claimedAt, FetchJobEntry.OUTCOME_DONE,
+                null, STARTED_AT + 22));
+        assertEquals(1, countJobs());
+        assertEquals(FetchJobEntry.STATE_DONE, after.finish(recovered.id, recovered.claimedAt,
+                FetchJobEntry.OUTCOME_DONE, null, STARTED_AT + 22));
+    }
+
+    public void testExpiredLeaseIsRecovered() {
+        FetchJobStore store = new FetchJobStore(mDb, STARTED_AT);
+        store.enqueue(TestUtilities.TEST_LOCATION, DAYS, 0, STARTED_AT);
+        FetchJobStore.Job job = store.claim(null, 0, false, STARTED_AT);
+
+        assertNull(store.claim(null, 0, false, job.claimedAt + FetchJobStore.LEASE_MILLIS - 1));
+        FetchJobStore.Job recovered =
+                store.claim(null, 0, false, job.claimedAt + FetchJobStore.LEASE_MILLIS);
+        assertNotNull("Error: a job claimed past its lease was not recovered", recovered);
+        assertEquals(job.id, recovered.id);
+    }
+
+    public void testStatsThroughProvider() {
+        // Queued as failed before, so no job is due for a worker that happens to be running
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_NUM_DAYS, DAYS);
+        extras.putInt(WeatherContract.EXTRA_FAILED_ATTEMPTS, 1);
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ENQUEUE_FETCH_JOB, TestUtilities.TEST_LOCATION, extras);
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ENQUEUE_FETCH_JOB, OTHER_LOCATION, extras);
+        Bundle deduped = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ENQUEUE_FETCH_JOB, OTHER_LOCATION, extras);
+        assertTrue(deduped.getBoolean(WeatherContract.RESULT_DEDUPED));
+
+        extras.putBoolean(WeatherContract.EXTRA_RUN_NOW, true);
+        Bundle claim = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_CLAIM_FETCH_JOB, TestUtilities.TEST_LOCATION, extras);
+        assertTrue(claim.getLong(WeatherContract.RESULT_JOB_ID) > 0);
+
+        Cursor stats = mContext.getContentResolver().query(FetchJobEntry.STATS_URI, null, null,
+                null, null);
+        assertEquals(1, stats.getCount());
+        assertTrue(stats.moveToFirst());
+        assertEquals(2, stats.getInt(stats.getColumnIndex(FetchJobEntry.STATS_QUEUED)));
+        assertEquals(1, stats.getInt(stats.getColumnIndex(FetchJobEntry.STATS_PENDING)));
+        assertEquals(0, stats.getInt(stats.getColumnIndex(FetchJobEntry.STATS_DUE)));
+        assertEquals(1, stats.getInt(stats.getColumnIndex(FetchJobEntry.STATS_RETRYING)));
+        assertTrue(stats.getLong(stats.getColumnIndex(FetchJobEntry.STATS_NEXT_RUN_AT)) >
+                System.currentTimeMillis());
+        assertEquals(1, stats.getInt(stats.getColumnIndex(FetchJobEntry.STATS_RUNNING)));
+        assertEquals(0, stats.getInt(stats.getColumnIndex(FetchJobEntry.STATS_FAILED)));
+        assertTrue(stats.getLong(stats.getColumnIndex(FetchJobEntry.STATS_OLDEST_CREATED_AT)) > 0);
+        assertTrue(stats.getInt(stats.getColumnIndex(FetchJobEntry.STATS_DEDUPED)) >= 1);
+        stats.close();
+
+        Bundle finish = new Bundle();
+        finish.putLong(WeatherContract.EXTRA_JOB_ID,
+                claim.getLong(WeatherContract.RESULT_JOB_ID));
+        finish.putLong(WeatherContract.EXTRA_CLAIMED_AT,
+                claim.getLong(WeatherContract.RESULT_CLAIMED_AT));
+        finish.putInt(WeatherContract.EXTRA_JOB_OUTCOME, FetchJobEntry.OUTCOME_DONE);
+        Bundle finished = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_FINISH_FETCH_JOB, null, finish);
+        assertEquals(FetchJobEntry.STATE_DONE,
+                finished.getInt(WeatherContract.RESULT_JOB_STATE));
+        assertEquals(1, countJobs());
+    }
+
+    private int countJobs() {
+        Cursor cursor = mDb.rawQuery("SELECT COUNT(*) FROM " + FetchJobEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Vector;
+
+public class TestForecastBlock extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastBlock.class.getSimpleName();
+
+    private static final int DAYS = 1000;
+    private static final String[] DESCRIPTIONS = {"Clear", "Rain", "Clouds", "Snow"};
+
+    public void testBuilderColumns() {
+        ForecastBlock.Builder builder = new ForecastBlock.Builder(TestUtilities.TEST_LOCATION, 2);
+        builder.setCity("North Pole", 64.7488, -147.353);
+        for (int i = 0; i < 20; i++) {
+            builder.add(TestUtilities.TEST_DATE + i, 65 - i, 75 + i, 1.3, 5.5, 1.1, 321, 20 + i,
+                    DESCRIPTIONS[i % DESCRIPTIONS.length]);
+        }
+        ForecastBlock block = builder.build();
+
+        assertEquals(20, block.size);
+        assertEquals("North Pole", block.cityName);
+        for (int i = 0; i < block.size; i++) {
+            assertEquals(TestUtilities.TEST_DATE + i, block.date[i]);
+            assertEquals(65.0 - i, block.minTemp[i]);
+            assertEquals(75.0 + i, block.maxTemp[i]);
+            assertEquals(20 + i, block.humidity[i]);
+            assertEquals(DESCRIPTIONS[i % DESCRIPTIONS.length], block.getDescription(i));
+        }
+
+        // every description is stored once no matter how many days use it
+        for (int i = 0; i < DESCRIPTIONS.length; i++) {
+            assertEquals(DESCRIPTIONS[i], block.descriptions[i]);
+        }
+        assertTrue(block.descriptions.length < 20);
+    }
+
+    /**
+     * Counts the objects allocated per parsed day by the old Vector<ContentValues> model and
+     * by ForecastBlock.
+     */
+    public void testAllocationsPerDay() {
+        int contentValuesAllocations = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                Vector<ContentValues> cVVector = new Vector<ContentValues>(DAYS);
+                for (int i = 0; i < DAYS; i++) {
+                    ContentValues weatherValues = new ContentValues();
+                    weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, 1L);
+                    weatherValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i);
+                    weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 20 + i);
+                    weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3 + i);
+                    weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5 + i);
+                    weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1 + i);
+                    weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0 + i);
+                    weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65.0 - i);
+                    weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC,
+                            DESCRIPTIONS[i % DESCRIPTIONS.length]);
+                    weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+                    cVVector.add(weatherValues);
+                }
+            }
+        });
+
+        int blockAllocations = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                ForecastBlock.Builder builder =
+                        new ForecastBlock.Builder(TestUtilities.TEST_LOCATION, DAYS);
+                for (int i = 0; i < DAYS; i++) {
+                    builder.add(TestUtilities.TEST_DATE + i, 65.0 - i, 75.0 + i, 1.3 + i,
+                            5.5 + i, 1.1 + i, 321, 20 + i, DESCRIPTIONS[i % DESCRIPTIONS.length]);
+                }
+                builder.build();
+            }
+        });
+
+        Log.d(LOG_TAG, "Objects per day: ContentValues " +
+                ((float) contentValuesAllocations / DAYS) + ", ForecastBlock " +
+                ((float) blockAllocations / DAYS));
+
+        // The block only allocates its columns up front, never per day
+        assertTrue("Error: ForecastBlock allocated " + blockAllocations + " objects for " +
+                DAYS + " days", blockAllocations < DAYS / 10);
+        assertTrue("Error: ContentValues was expected to allocate at least one object per day",
+                contentValuesAllocations > DAYS);
+    }
+
+    private static int countAllocations(Runnable work) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            work.run();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastBlockCall extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastBlockCall.class.getSimpleName();
+
+    private static final String OTHER_LOCATION = "94043";
+    private static final int DAYS = 14;
+    private static final int ITERATIONS = 200;
+
+    private static final String[] DAY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        long otherRowId = db.insert(LocationEntry.TABLE_NAME, null, other);
+        db.close();
+
+        // Through the provider, so the forecast store sees the writes
+        resolver.bulkInsert(WeatherEntry.CONTENT_URI,
+                TestWeatherIngester.createBlock(DAYS).toContentValues(locationRowId));
+        resolver.bulkInsert(WeatherEntry.CONTENT_URI,
+                TestWeatherIngester.createBlock(DAYS / 2).toContentValues(otherRowId));
+    }
+
+    public void testGetForecastBlockMatchesQuery() {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_NUM_DAYS, 10);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_FORECAST_BLOCK, TestUtilities.TEST_LOCATION, extras);
+
+        int[] offsets = result.getIntArray(WeatherContract.RESULT_OFFSETS);
+        assertEquals(2, offsets.length);
+        assertEquals(0, offsets[0]);
+        assertEquals(10, offsets[1]);
+        assertDaysMatchQuery(result, 0, TestUtilities.TEST_LOCATION);
+    }
+
+    public void testGetForecastBlocksPacksEveryLocation() {
+        Bundle extras = new Bundle();
+        extras.putStringArray(WeatherContract.EXTRA_LOCATION_SETTINGS,
+                new String[]{TestUtilities.TEST_LOCATION, "00000", OTHER_LOCATION});
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_FORECAST_BLOCKS, null, extras);
+
+        int[] offsets = result.getIntArray(WeatherContract.RESULT_OFFSETS);
+        assertEquals(4, offsets.length);
+        assertEquals(DAYS, offsets[1]);
+        assertEquals("Error: an unknown location should have no days", offsets[1], offsets[2]);
+        assertEquals(DAYS + DAYS / 2, offsets[3]);
+        assertEquals(offsets[3], result.getLongArray(WeatherContract.RESULT_DATES).length);
+        assertDaysMatchQuery(result, 0, TestUtilities.TEST_LOCATION);
+        assertDaysMatchQuery(result, 2, OTHER_LOCATION);
+    }
+
+    public void testStartDate() {
+        long startDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE) +
+                3 * 1000 * 60 * 60 * 24;
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_START_DATE, startDate);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_FORECAST_BLOCK, TestUtilities.TEST_LOCATION, extras);
+
+        long[] dates = result.getLongArray(WeatherContract.RESULT_DATES);
+        assertEquals(DAYS - 3, dates.length);
+        assertEquals(startDate, dates[0]);
+    }
+
+    // Reads the same days both ways, ITERATIONS times each, and logs the time per read
+    public void testCallAgainstQuery() {
+        ContentResolver resolver = mContext.getContentResolver();
+        String[] locations = {TestUtilities.TEST_LOCATION, OTHER_LOCATION};
+
+        double querySum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (String location : locations) {
+                Cursor cursor = resolver.query(WeatherEntry.buildWeatherLocation(location),
+                        DAY_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                while (cursor.moveToNext()) {
+                    querySum += cursor.getLong(0) + cursor.getDouble(1) + cursor.getDouble(2) +
+                            cursor.getInt(3);
+                }
+                cursor.close();
+            }
+        }
+        long queryNanos = System.nanoTime() - start;
+
+        double callSum = 0;
+        Bundle extras = new Bundle();
+        extras.putStringArray(WeatherContract.EXTRA_LOCATION_SETTINGS, locations);
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Bundle result = resolver.call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_GET_FORECAST_BLOCKS, null, extras);
+            long[] dates = result.getLongArray(WeatherContract.RESULT_DATES);
+            double[] minTemps = result.getDoubleArray(WeatherContract.RESULT_MIN_TEMPS);
+            double[] maxTemps = result.getDoubleArray(WeatherContract.RESULT_MAX_TEMPS);
+            int[] weatherIds = result.getIntArray(WeatherContract.RESULT_WEATHER_IDS);
+            for (int day = 0; day < dates.length; day++) {
+                callSum += dates[day] + minTemps[day] + maxTemps[day] + weatherIds[day];
+            }
+        }
+        long callNanos = System.nanoTime() - start;
+
+        assertEquals(querySum, callSum);
+        Log.d(LOG_TAG, "Two locations, " + ITERATIONS + " reads each way: query() " +
+                (queryNanos / ITERATIONS / 1000) + " us/read, call() " +
+                (callNanos / ITERATIONS / 1000) + " us/read");
+    }
+
+    // The days of the location at index in the result are what query() returns for it
+    private void assertDaysMatchQuery(Bundle result, int index, String locationSetting) {
+        assertEquals(locationSetting,
+                result.getStringArray(WeatherContract.RESULT_LOCATION_SETTINGS)[index]);
+        int[] offsets = result.getIntArray(WeatherContract.RESULT_OFFSETS);
+        long[] dates = result.getLongArray(WeatherContract.RESULT_DATES);
+        double[] minTemps = result.getDoubleArray(WeatherContract.RESULT_MIN_TEMPS);
+        double[] maxTemps = result.getDoubleArray(WeatherContract.RESULT_MAX_TEMPS);
+        int[] weatherIds = result.getIntArray(WeatherContract.RESULT_WEATHER_IDS);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting), DAY_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        for (int day = offsets[index]; day < offsets[index + 1]; day++) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(cursor.getLong(0), dates[day]);
+            assertEquals(cursor.getDouble(1), minTemps[day]);
+            assertEquals(cursor.getDouble(2), maxTemps[day]);
+            assertEquals(cursor.getInt(3), weatherIds[day]);
+        }
+        cursor.close();
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastStore extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastStore.class.getSimpleName();
+
+    private static final String[] LIST_PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_FETCHED_AT
+    };
+
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        WeatherIngester ingester = new WeatherIngester(mDb);
+        ingester.ingest(TestWeatherIngester.createBlock(14), mLocationRowId);
+        ingester.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testServesRepeatQueriesFromMemory() {
+        ForecastStore store = new ForecastStore();
+
+        Cursor first = store.query(mDb, TestUtilities.TEST_LOCATION, 0, LIST_PROJECTION,
+                SORT_ORDER);
+        Cursor second = store.query(mDb, TestUtilities.TEST_LOCATION, 0, LIST_PROJECTION,
+                SORT_ORDER);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(1, store.getMissCount());
+        assertEquals(1, store.getHitCount());
+        assertEquals(0.5, store.getHitRatio());
+        assertEquals(1, store.getEntryCount());
+        assertTrue(store.getResidentBytes() > 0);
+        Log.d(LOG_TAG, store.toString());
+
+        assertSameRows(queryDatabase(0), first);
+        assertSameRows(queryDatabase(0), second);
+    }
+
+    public void testStartDateIsPartOfTheKey() {
+        ForecastStore store = new ForecastStore();
+        long startDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE) +
+                5 * 1000 * 60 * 60 * 24;
+
+        Cursor all = store.query(mDb, TestUtilities.TEST_LOCATION, 0, LIST_PROJECTION, null);
+        Cursor fromDate = store.query(mDb, TestUtilities.TEST_LOCATION, startDate,
+                LIST_PROJECTION, null);
+        assertEquals(2, store.getMissCount());
+        assertEquals(2, store.getEntryCount());
+        assertSameRows(queryDatabase(0), all);
+        assertSameRows(queryDatabase(startDate), fromDate);
+    }
+
+    public void testInvalidateDropsTheLocation() {
+        ForecastStore store = new ForecastStore();
+        store.query(mDb, TestUtilities.TEST_LOCATION, 0, LIST_PROJECTION, SORT_ORDER).close();
+        store.query(mDb, TestUtilities.TEST_LOCATION, 1, LIST_PROJECTION, SORT_ORDER).close();
+        store.query(mDb, "94043", 0, LIST_PROJECTION, SORT_ORDER).close();
+        assertEquals(3, store.getEntryCount());
+
+        store.invalidate(TestUtilities.TEST_LOCATION);
+        assertEquals(1, store.getEntryCount());
+
+        store.query(mDb, TestUtilities.TEST_LOCATION, 0, LIST_PROJECTION, SORT_ORDER).close();
+        assertEquals(4, store.getMissCount());
+
+        store.invalidateAll();
+        assertEquals(0, store.getEntryCount());
+        assertEquals(0, store.getResidentBytes());
+    }
+
+    public void testBoundedByEntries() {
+        ForecastStore store = new ForecastStore(2, ForecastStore.DEFAULT_MAX_BYTES);
+        for (int startDate = 1; startDate <= 3; startDate++) {
+            store.query(mDb, TestUtilities.TEST_LOCATION, startDate, LIST_PROJECTION,
+                    SORT_ORDER).close();
+        }
+        assertEquals(2, store.getEntryCount());
+    }
+
+    public void testUnservableQueriesGoToTheDatabase() {
+        ForecastStore store = new ForecastStore();
+        assertNull(store.query(mDb, TestUtilities.TEST_LOCATION, 0, null, SORT_ORDER));
+        assertNull("Error: a bare _id is ambiguous in the join", store.query(mDb,
+                TestUtilities.TEST_LOCATION, 0, new String[]{WeatherEntry._ID}, SORT_ORDER));
+        assertNull(store.query(mDb, TestUtilities.TEST_LOCATION, 0, LIST_PROJECTION,
+                WeatherEntry.COLUMN_DATE + " DESC"));
+        assertEquals(3, store.getBypassCount());
+        assertEquals(0, store.getEntryCount());
+    }
+
+    public void testProviderSeesItsOwnWrites() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                LIST_PROJECTION, null, null, SORT_ORDER);
+        assertEquals(14, cursor.getCount());
+        cursor.close();
+
+        ContentValues[] values = TestProvider.createBulkInsertWeatherValues(mLocationRowId);
+        for (ContentValues value : values) {
+            value.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                    value.getAsLong(WeatherEntry.COLUMN_DATE)));
+            value.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                LIST_PROJECTION, null, null, SORT_ORDER);
+        assertSameRows(queryDatabase(0), cursor);
+    }
+
+    public void testStatsThroughProvider() {
+        // The provider's store outlives the test, so only what this test adds is checked
+        Cursor before = queryStats();
+        long hits = before.getLong(before.getColumnIndex(WeatherEntry.STORE_STATS_HITS));
+        long misses = before.getLong(before.getColumnIndex(WeatherEntry.STORE_STATS_MISSES));
+        before.close();
+
+        for (int i = 0; i < 3; i++) {
+            mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                    LIST_PROJECTION, null, null, SORT_ORDER).close();
+        }
+
+        Cursor stats = queryStats();
+        long hitsNow = stats.getLong(stats.getColumnIndex(WeatherEntry.STORE_STATS_HITS));
+        long missesNow = stats.getLong(stats.getColumnIndex(WeatherEntry.STORE_STATS_MISSES));
+        assertEquals(3, hitsNow + missesNow - hits - misses);
+        assertTrue("Error: repeat queries should be served from memory", hitsNow - hits >= 2);
+        assertEquals((double) hitsNow / (hitsNow + missesNow),
+                stats.getDouble(stats.getColumnIndex(WeatherEntry.STORE_STATS_HIT_RATIO)));
+        assertTrue(stats.getInt(stats.getColumnIndex(WeatherEntry.STORE_STATS_ENTRIES)) >= 1);
+        assertTrue(stats.getLong(
+                stats.getColumnIndex(WeatherEntry.STORE_STATS_RESIDENT_BYTES)) > 0);
+        stats.close();
+    }
+
+    private Cursor queryStats() {
+        Cursor stats = mContext.getContentResolver().query(WeatherEntry.STORE_STATS_URI, null,
+                null, null, null);
+        assertEquals(1, stats.getCount());
+        assertTrue(stats.moveToFirst());
+        return stats;
+    }
+
+    private Cursor queryDatabase(long startDate) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(mDb, LIST_PROJECTION,
+                startDate == 0 ? WeatherProvider.sLocationSettingSelection :
+                        WeatherProvider.sLocationSettingWithStartDateSelection,
+                startDate == 0 ? new String[]{TestUtilities.TEST_LOCATION} :
+                        new String[]{TestUtilities.TEST_LOCATION, Long.toString(startDate)},
+                null, null, SORT_ORDER);
+    }
+
+    // Same columns, and the same values read the way the list reads them
+    private static void assertSameRows(Cursor expected, Cursor actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+        for (int c = 0; c < expected.getColumnCount(); c++) {
+            assertEquals(expected.getColumnName(c), actual.getColumnName(c));
+        }
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int c = 0; c < expected.getColumnCount(); c++) {
+                assertEquals(expected.getType(c), actual.getType(c));
+                assertEquals(expected.getLong(c), actual.getLong(c));
+                assertEquals(expected.getDouble(c), actual.getDouble(c));
+            }
+        }
+        expected.close();
+        actual.close();
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that every URI the provider answers is served through an index rather than a table
+ * scan, with the tables holding about as many rows as a heavy user would ever collect.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final int LOCATIONS = 1000;
+    private static final int DAYS = 100;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final long START_DATE = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+    // What the forecast list asks for, these weather columns must come from the index alone
+    private static final String[] LIST_PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_FETCHED_AT
+    };
+
+    private static final String LIST_SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        populate(mDb);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testEveryUriUsesAnIndex() {
+        String location = locationSetting(LOCATIONS / 2);
+        long date = START_DATE + DAYS / 2 * DAY_IN_MILLIS;
+        Uri[] uris = {
+                WeatherEntry.CONTENT_URI,
+                WeatherEntry.buildWeatherLocation(location),
+                WeatherEntry.buildWeatherLocationWithStartDate(location, date),
+                WeatherEntry.buildWeatherLocationWithDate(location, date),
+                LocationEntry.CONTENT_URI
+        };
+
+        UriMatcher matcher = WeatherProvider.buildUriMatcher();
+        Set<Integer> matched = new HashSet<Integer>();
+        for (Uri uri : uris) {
+            int match = matcher.match(uri);
+            matched.add(match);
+            String sql;
+            String[] args;
+            switch (match) {
+                case WeatherProvider.WEATHER:
+                    // The provider passes the caller's selection through, this is the one
+                    // callers use to read a single day of a location
+                    sql = SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                            null, WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                    WeatherEntry.COLUMN_DATE + " = ?", null, null, null, null);
+                    args = new String[]{"1", Long.toString(date)};
+                    break;
+                case WeatherProvider.WEATHER_WITH_LOCATION:
+                    long startDate = WeatherEntry.getStartDateFromUri(uri);
+                    if (startDate == 0) {
+                        sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                                LIST_PROJECTION, WeatherProvider.sLocationSettingSelection,
+                                null, null, LIST_SORT_ORDER, null);
+                        args = new String[]{location};
+                    } else {
+                        sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                                LIST_PROJECTION,
+                                WeatherProvider.sLocationSettingWithStartDateSelection,
+                                null, null, LIST_SORT_ORDER, null);
+                        args = new String[]{location, Long.toString(startDate)};
+                    }
+                    break;
+                case WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE:
+                    sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                            null, WeatherProvider.sLocationSettingAndDaySelection,
+                            null, null, null, null);
+                    args = new String[]{location, Long.toString(date)};
+                    break;
+                case WeatherProvider.LOCATION:
+                    sql = SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                            null, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                            null, null, null, null);
+                    args = new String[]{location};
+                    break;
+                default:
+                    fail("Error: no query plan check for " + uri);
+                    return;
+            }
+
+            List<String> plan = explain(sql, args);
+            Log.d(LOG_TAG, uri + ": " + plan);
+            for (String step : plan) {
+                assertFalse("Error: " + uri + " scans a table: " + plan,
+                        step.startsWith("SCAN"));
+                assertFalse("Error: " + uri + " sorts in a temporary b-tree: " + plan,
+                        step.contains("TEMP B-TREE"));
+            }
+            if (match == WeatherProvider.WEATHER_WITH_LOCATION) {
+                assertTrue("Error: the forecast list for " + uri + " reads the weather table: " +
+                        plan, plan.toString().contains(
+                        "COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+            }
+        }
+
+        assertTrue("Error: a URI pattern has no query plan check",
+                matched.contains(WeatherProvider.WEATHER) &&
+                        matched.contains(WeatherProvider.WEATHER_WITH_LOCATION) &&
+                        matched.contains(WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE) &&
+                        matched.contains(WeatherProvider.LOCATION));
+    }
+
+    // The detail column of EXPLAIN QUERY PLAN, one entry per step
+    private List<String> explain(String sql, String[] args) {
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailColumn = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailColumn));
+        }
+        cursor.close();
+        return plan;
+    }
+
+    private static String locationSetting(int i) {
+        return Integer.toString(10000 + i);
+    }
+
+    // LOCATIONS locations with DAYS days of weather each, written in one transaction
+    private static void populate(SQLiteDatabase db) {
+        long start = System.nanoTime();
+        SQLiteStatement insertLocation = db.compileStatement("INSERT INTO " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?)");
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO " +
+                WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATIONS; i++) {
+                insertLocation.bindString(1, locationSetting(i));
+                insertLocation.bindString(2, "City " + i);
+                insertLocation.bindDouble(3, 64.7488);
+                insertLocation.bindDouble(4, -147.353);
+                long locationId = insertLocation.executeInsert();
+
+                long date = START_DATE;
+                for (int day = 0; day < DAYS; day++, date += DAY_IN_MILLIS) {
+                    insertWeather.bindLong(1, locationId);
+                    insertWeather.bindLong(2, date);
+                    insertWeather.bindString(3, day % 2 == 0 ? "Asteroids" : "Clear");
+                    insertWeather.bindLong(4, 321);
+                    insertWeather.bindDouble(5, 65);
+                    insertWeather.bindDouble(6, 75);
+                    insertWeather.bindDouble(7, 1.2);
+                    insertWeather.bindDouble(8, 1.3);
+                    insertWeather.bindDouble(9, 5.5);
+                    insertWeather.bindDouble(10, 1.1);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insertLocation.close();
+            insertWeather.close();
+        }
+        Log.d(LOG_TAG, "Wrote " + (LOCATIONS * DAYS) + " weather rows in " +
+                ((System.nanoTime() - start) / 1000000) + " ms");
+    }
+}
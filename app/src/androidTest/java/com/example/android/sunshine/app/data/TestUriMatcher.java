@@ -19,6 +19,10 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/fetch_job/stats"
+    private static final Uri TEST_FETCH_JOB_STATS = WeatherContract.FetchJobEntry.STATS_URI;
+    // content://com.example.android.sunshine.app/forecast_store/stats"
+    private static final Uri TEST_FORECAST_STORE_STATS = WeatherContract.WeatherEntry.STORE_STATS_URI;
 
     // This function tests that UriMatcher returns the correct integer value
     // for each of the Uri types that ContentProvider can handle
@@ -33,5 +37,9 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The FETCH JOB STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_FETCH_JOB_STATS), WeatherProvider.FETCH_JOB_STATS);
+        assertEquals("Error: The FORECAST STORE STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_FORECAST_STORE_STATS), WeatherProvider.FORECAST_STORE_STATS);
     }
 }
@@ -0,0 +1,194 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the forecast list query takes while a large ingest is running, with the
+ * database journaled in a write-ahead log and with a rollback journal.  The percentiles are
+ * logged under this class's tag.
+ */
+public class TestWalBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWalBenchmark.class.getSimpleName();
+
+    private static final int INGEST_LOCATIONS = 20;
+    private static final int INGEST_DAYS = 1000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String[] LIST_PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_FETCHED_AT
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testReadLatencyDuringIngest() throws Exception {
+        ReadLatencies rollback = measure(false);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        ReadLatencies wal = measure(true);
+
+        Log.d(LOG_TAG, "Rollback journal: " + rollback);
+        Log.d(LOG_TAG, "Write-ahead log:  " + wal);
+        assertTrue("Error: no reads finished while ingesting with the write-ahead log",
+                wal.duringIngest > 0);
+    }
+
+    public void testJournalMode() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, true,
+                WeatherDbHelper.DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null)
+                .toLowerCase());
+        helper.close();
+    }
+
+    public void testDeferredCheckpoint() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, true, 0);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        WeatherIngester ingester = new WeatherIngester(db);
+        ingester.ingest(TestWeatherIngester.createBlock(50), locationRowId);
+        ingester.close();
+
+        // Nothing copied the log back on commit, so the checkpoint has frames to copy
+        assertTrue(helper.checkpointIfDeferred() > 0);
+        helper.close();
+
+        helper = new WeatherDbHelper(mContext, true,
+                WeatherDbHelper.DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+        assertEquals(-1, helper.checkpointIfDeferred());
+        helper.close();
+    }
+
+    // Ingests INGEST_LOCATIONS x INGEST_DAYS rows on this thread while another thread keeps
+    // reading the list of a location that is not being written
+    private ReadLatencies measure(boolean writeAheadLogging) throws InterruptedException {
+        final WeatherDbHelper helper = new WeatherDbHelper(mContext, writeAheadLogging,
+                WeatherDbHelper.DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        long readLocationId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        WeatherIngester ingester = new WeatherIngester(db);
+        ingester.ingest(TestWeatherIngester.createBlock(14), readLocationId);
+
+        final ReadLatencies latencies = new ReadLatencies();
+        final CountDownLatch readerStarted = new CountDownLatch(1);
+        final String[] selectionArgs = {TestUtilities.TEST_LOCATION};
+        Thread reader = new Thread("ListReader") {
+            @Override
+            public void run() {
+                SQLiteDatabase readable = helper.getReadableDatabase();
+                readerStarted.countDown();
+                while (!latencies.stopped) {
+                    boolean ingesting = latencies.ingesting;
+                    long start = System.nanoTime();
+                    Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(
+                            readable, LIST_PROJECTION, WeatherProvider.sLocationSettingSelection,
+                            selectionArgs, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                    cursor.getCount();
+                    cursor.close();
+                    long elapsed = System.nanoTime() - start;
+                    if (ingesting && latencies.ingesting) {
+                        latencies.add(elapsed);
+                    }
+                }
+            }
+        };
+        reader.start();
+        assertTrue(readerStarted.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        latencies.ingesting = true;
+        for (int i = 0; i < INGEST_LOCATIONS; i++) {
+            long locationId = db.insert(LocationEntry.TABLE_NAME, null,
+                    createLocationValues(i));
+            ingester.ingest(createBlock(i), locationId);
+        }
+        latencies.ingesting = false;
+        latencies.ingestMillis = (System.nanoTime() - start) / 1000000;
+        latencies.stopped = true;
+        reader.join();
+
+        ingester.close();
+        helper.close();
+        return latencies;
+    }
+
+    private static ContentValues createLocationValues(int i) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "ingest-" + i);
+        return values;
+    }
+
+    private static ForecastBlock createBlock(int location) {
+        String locationSetting = "ingest-" + location;
+        ForecastBlock.Builder builder = new ForecastBlock.Builder(locationSetting, INGEST_DAYS);
+        builder.setCity("North Pole", 64.7488, -147.353);
+        long date = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        for (int i = 0; i < INGEST_DAYS; i++, date += DAY_IN_MILLIS) {
+            builder.add(date, 65 - i % 30, 75 + i % 30, 1000 + i % 50, 5.5, 1.5, 321, 20,
+                    i % 2 == 0 ? "Asteroids" : "Clear");
+        }
+        return builder.build();
+    }
+
+    // Latencies of the reads that started and finished while the ingest was running
+    private static class ReadLatencies {
+        volatile boolean ingesting;
+        volatile boolean stopped;
+        long ingestMillis;
+        int duringIngest;
+        private final List<Long> mNanos = new ArrayList<Long>();
+
+        synchronized void add(long nanos) {
+            mNanos.add(nanos);
+            duringIngest++;
+        }
+
+        synchronized long percentileMicros(int percentile) {
+            if (mNanos.isEmpty()) {
+                return -1;
+            }
+            List<Long> sorted = new ArrayList<Long>(mNanos);
+            Collections.sort(sorted);
+            int index = Math.min(sorted.size() - 1, sorted.size() * percentile / 100);
+            return sorted.get(index) / 1000;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return duringIngest + " reads during a " + ingestMillis + " ms ingest, p50 " +
+                    percentileMicros(50) + " us, p90 " + percentileMicros(90) + " us, p99 " +
+                    percentileMicros(99) + " us, max " + percentileMicros(100) + " us";
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+public class TestWeatherIngester extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherIngester.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Start from empty tables.  The provider may hold the database open, so the rows are
+    // deleted through it rather than deleting the database file.
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    static ForecastBlock createBlock(int days) {
+        ForecastBlock.Builder builder = new ForecastBlock.Builder(TestUtilities.TEST_LOCATION, days);
+        builder.setCity("North Pole", 64.7488, -147.353);
+        long date = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        for (int i = 0; i < days; i++, date += DAY_IN_MILLIS) {
+            // values that print the same in Java and SQLite, validateCurrentRecord compares text
+            builder.add(WeatherContract.normalizeDate(date), 65 - i, 75 + i, 1000 + i,
+                    5.5 + 0.25 * i, 1.5, 321, 20 + i, i % 2 == 0 ? "Asteroids" : "Clear");
+        }
+        return builder.build();
+    }
+
+    public void testIngestBlockInChunks() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        ForecastBlock block = createBlock(25);
+        WeatherIngester ingester = new WeatherIngester(db);
+        ingester.setChunkSize(4);
+        WeatherIngester.IngestStats stats = ingester.ingest(block, locationRowId);
+        ingester.close();
+
+        assertEquals(25, stats.rows());
+        assertEquals(0, stats.failed);
+        assertTrue(stats.rowsPerSecond() > 0);
+        Log.d(LOG_TAG, "Block ingest: " + stats);
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(25, cursor.getCount());
+        ContentValues[] expected = block.toContentValues(locationRowId);
+        cursor.moveToFirst();
+        for (int i = 0; i < expected.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testIngestBlockInChunks day " + i,
+                    cursor, expected[i]);
+        }
+        cursor.close();
+        db.close();
+    }
+
+    public void testIngestContentValuesMatchesInsert() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        ContentValues[] values = createBlock(10).toContentValues(locationRowId);
+        WeatherIngester ingester = new WeatherIngester(db);
+        WeatherIngester.IngestStats stats = ingester.ingestWeather(values);
+        ingester.close();
+        assertEquals(10, stats.rows());
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        cursor.moveToFirst();
+        for (int i = 0; i < values.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testIngestContentValuesMatchesInsert day " + i,
+                    cursor, values[i]);
+        }
+        cursor.close();
+        db.close();
+    }
+
+    public void testIngestSkipsInvalidRows() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        ContentValues[] values = createBlock(3).toContentValues(locationRowId);
+        values[1].remove(WeatherEntry.COLUMN_SHORT_DESC);
+
+        WeatherIngester ingester = new WeatherIngester(db);
+        WeatherIngester.IngestStats stats = ingester.ingestWeather(values);
+        ingester.close();
+
+        assertEquals(2, stats.rows());
+        assertEquals(1, stats.failed);
+        assertEquals(2, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        db.close();
+    }
+
+    public void testUpsertUpdatesInPlace() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        WeatherIngester ingester = new WeatherIngester(db);
+
+        ForecastBlock block = createBlock(10);
+        WeatherIngester.IngestStats stats = ingester.ingest(block, locationRowId);
+        assertEquals(10, stats.inserted);
+        long[] rowIds = queryRowIds(db);
+
+        // Storing the same forecast again doesn't write anything
+        stats = ingester.ingest(block, locationRowId);
+        assertEquals(0, stats.inserted);
+        assertEquals(0, stats.updated);
+        assertEquals(10, stats.unchanged);
+
+        // A revised forecast updates the changed days and keeps their row ids
+        block.maxTemp[3] = 90.0;
+        block.maxTemp[7] = 91.0;
+        stats = ingester.ingest(block, locationRowId);
+        ingester.close();
+        assertEquals(0, stats.inserted);
+        assertEquals(2, stats.updated);
+        assertEquals(8, stats.unchanged);
+        assertEquals(10, stats.rows());
+
+        assertTrue("Error: upserted days got new row ids", Arrays.equals(rowIds, queryRowIds(db)));
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        ContentValues[] expected = block.toContentValues(locationRowId);
+        cursor.moveToFirst();
+        for (int i = 0; i < expected.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testUpsertUpdatesInPlace day " + i,
+                    cursor, expected[i]);
+        }
+        cursor.close();
+        db.close();
+    }
+
+    public void testIngestStampsFetchedAt() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals("Error: a new location should never have been fetched",
+                0, queryFetchedAt(db, locationRowId));
+
+        WeatherIngester ingester = new WeatherIngester(db);
+        ingester.ingest(createBlock(3), locationRowId, TestUtilities.TEST_DATE);
+        ingester.close();
+
+        assertEquals(TestUtilities.TEST_DATE, queryFetchedAt(db, locationRowId));
+        db.close();
+    }
+
+    public void testChunkedIngestStampsFetchedAt() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        WeatherIngester ingester = new WeatherIngester(db);
+        ingester.setChunkSize(4);
+        ingester.ingest(createBlock(10), locationRowId, TestUtilities.TEST_DATE);
+        assertEquals(TestUtilities.TEST_DATE, queryFetchedAt(db, locationRowId));
+
+        // A block without days still stamps the location
+        ingester.ingest(createBlock(0), locationRowId, TestUtilities.TEST_DATE + 1);
+        ingester.close();
+        assertEquals(TestUtilities.TEST_DATE + 1, queryFetchedAt(db, locationRowId));
+        db.close();
+    }
+
+    private static long queryFetchedAt(SQLiteDatabase db, long locationRowId) {
+        return DatabaseUtils.longForQuery(db, "SELECT " +
+                WeatherContract.LocationEntry.COLUMN_FETCHED_AT + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationRowId)});
+    }
+
+    private static long[] queryRowIds(SQLiteDatabase db) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, new String[]{WeatherEntry._ID},
+                null, null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] rowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return rowIds;
+    }
+
+    public void testBulkInsertBlockThroughProvider() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        Bundle extras = createBlock(14).toBundle();
+        extras.putLong(WeatherContract.EXTRA_LOCATION_ID, locationRowId);
+        extras.putInt(WeatherContract.EXTRA_CHUNK_SIZE, 5);
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BLOCK, null, extras);
+        assertEquals(14, result.getInt(WeatherContract.RESULT_ROWS));
+        Log.d(LOG_TAG, "Provider block ingest: " +
+                result.getDouble(WeatherContract.RESULT_ROWS_PER_SECOND) + " rows/sec");
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(14, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testBulkInsertBlockRequiresLocationId() {
+        try {
+            mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_BULK_INSERT_BLOCK, null, createBlock(3).toBundle());
+            fail("Error: a block without a location id should be rejected");
+        } catch (IllegalArgumentException expected) {
+            // the days would belong to no location
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastBlock;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.FetchJobEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.io.IOException;
+
+/**
+ * Runs the forecast fetches queued in the provider's fetch job table.
+ *
+ * A fetch is queued before it starts and only leaves the queue once its forecast is stored,
+ * so a fetch that the process died in the middle of is run again by the next process instead
+ * of being lost.  A failed fetch waits longer after every failure before it is retried;
+ * {@link #resume(Context)} runs whatever is due and comes back when the next retry is.
+ *
+ * The queue does the bookkeeping, so any number of workers can run at once without two of
+ * them running the same job.  Apart from {@link #resume(Context)} the methods block, call them
+ * off the main thread.
+ */
+public class FetchJobWorker {
+
+    private static final String LOG_TAG = FetchJobWorker.class.getSimpleName();
+
+    private static final String[] CITY_ID_COLUMNS = {
+            LocationEntry.COLUMN_CITY_ID
+    };
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    // The pending wake up for the next retry, main thread only
+    private static Runnable sResume;
+
+    /**
+     * A job this worker claimed, to run and then finish.
+     */
+    static class Job {
+        final long id;
+        final String locationSetting;
+        final int numDays;
+        // Failures before this claim
+        final int attempts;
+        final long claimedAt;
+
+        Job(Bundle claim) {
+            id = claim.getLong(WeatherContract.RESULT_JOB_ID);
+            locationSetting = claim.getString(WeatherContract.RESULT_JOB_LOCATION_SETTING);
+            numDays = claim.getInt(WeatherContract.RESULT_JOB_NUM_DAYS);
+            attempts = claim.getInt(WeatherContract.RESULT_JOB_ATTEMPTS);
+            claimedAt = claim.getLong(WeatherContract.RESULT_CLAIMED_AT);
+        }
+
+        @Override
+        public String toString() {
+            return "job " + id + " (" + locationSetting + ", " + numDays + " days)";
+        }
+    }
+
+    /**
+     * Runs every due job behind the visible fetches, then schedules itself for the next
+     * retry.
+     */
+    static class ResumeTask extends FetchScheduler.Task<Long> {
+        private final Context mContext;
+
+        ResumeTask(Context context) {
+            mContext = context;
+            setPriority(FetchScheduler.PRIORITY_BACKGROUND);
+        }
+
+        @Override
+        protected Long doInBackground() {
+            FetchJobWorker worker = new FetchJobWorker(mContext);
+            int ran = worker.runDueJobs(this);
+            if (ran > 0) {
+                Log.d(LOG_TAG, "Ran " + ran + " queued fetches");
+            }
+            return worker.getNextRunAt();
+        }
+
+        @Override
+        protected void onResult(Long nextRunAt) {
+            scheduleResume(mContext, nextRunAt);
+        }
+    }
+
+    private final Context mContext;
+    // From the last claim that found nothing due
+    private long mNextRunAt;
+
+    public FetchJobWorker(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Runs the jobs that are due, including any an earlier process queued or left running,
+     * on the {@link FetchScheduler}.
+     */
+    public static void resume(Context context) {
+        FetchScheduler.getInstance(context).submit(
+                new ResumeTask(context.getApplicationContext()));
+    }
+
+    // Main thread only
+    private static void scheduleResume(final Context context, long nextRunAt) {
+        if (sResume != null) {
+            sMainHandler.removeCallbacks(sResume);
+            sResume = null;
+        }
+        if (nextRunAt <= 0) {
+            return;
+        }
+        sResume = new Runnable() {
+            @Override
+            public void run() {
+                sResume = null;
+                resume(context);
+            }
+        };
+        sMainHandler.postDelayed(sResume,
+                Math.max(0, nextRunAt - System.currentTimeMillis()));
+    }
+
+    /**
+     * Queues a fetch of the location unless the same fetch is queued already.
+     *
+     * @param failedAttempts failures the fetch already had, so it waits before being retried.
+     * @return false if the fetch was queued already.
+     */
+    public boolean enqueue(String locationSetting, int numDays, int failedAttempts) {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_NUM_DAYS, numDays);
+        extras.putInt(WeatherContract.EXTRA_FAILED_ATTEMPTS, failedAttempts);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ENQUEUE_FETCH_JOB, locationSetting, extras);
+        return result != null && !result.getBoolean(WeatherContract.RESULT_DEDUPED);
+    }
+
+    /**
+     * Claims the job of the location, or the job due first if locationSetting is null.
+     *
+     * @param runNow claim the location's job even while it waits to be retried.
+     * @return the job, or null if it is running elsewhere or not due.
+     */
+    Job claim(String locationSetting, int numDays, boolean runNow) {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_NUM_DAYS, numDays);
+        extras.putBoolean(WeatherContract.EXTRA_RUN_NOW, runNow);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_CLAIM_FETCH_JOB, locationSetting, extras);
+        if (result == null) {
+            return null;
+        }
+        if (result.getLong(WeatherContract.RESULT_JOB_ID, -1) == -1) {
+            mNextRunAt = result.getLong(WeatherContract.RESULT_NEXT_RUN_AT);
+            return null;
+        }
+        return new Job(result);
+    }
+
+    /**
+     * When the first job that waits to be retried is due, as of the last claim that found
+     * nothing to run.  0 if no job waits.
+     */
+    long getNextRunAt() {
+        return mNextRunAt;
+    }
+
+    /**
+     * Claims and runs the due jobs one after the other until there are none left or the task
+     * is cancelled.
+     *
+     * @param task the task this runs in, or null outside the scheduler.
+     * @return the number of jobs run.
+     */
+    int runDueJobs(FetchScheduler.Task<?> task) {
+        int ran = 0;
+        while (task == null || !task.isCancelled()) {
+            Job job = claim(null, 0, false);
+            if (job == null) {
+                break;
+            }
+            run(job, loadCityId(job.locationSetting), task);
+            ran++;
+        }
+        return ran;
+    }
+
+    /**
+     * Fetches and stores the forecast of a claimed job, then finishes the job.  A job whose
+     * task was cancelled is handed back to the queue, without counting as a failure.
+     *
+     * @param cityId the city the location resolved to before, 0 if it is not known.
+     * @param task the task this runs in, or null outside the scheduler.
+     * @return true if the forecast was stored.  A forecast that could not be stored fails the
+     * job like a failed fetch, so it is retried.
+     */
+    boolean run(Job job, long cityId, FetchScheduler.Task<?> task) {
+        int outcome = FetchJobEntry.OUTCOME_FAILED;
+        String error = null;
+        try {
+            // Shares the request with any other fetch of the same forecast already in flight
+            ForecastFetchCoordinator coordinator = ForecastFetchCoordinator.getInstance(mContext);
+            ForecastBlock block = coordinator.fetch(job.locationSetting, cityId, job.numDays);
+            if (task != null && task.isCancelled()) {
+                outcome = FetchJobEntry.OUTCOME_RELEASED;
+            } else {
+                store(block);
+                outcome = FetchJobEntry.OUTCOME_DONE;
+            }
+        } catch (IOException e) {
+            if (task != null && task.isCancelled()) {
+                if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                    Log.d(LOG_TAG, "Fetch of " + job + " cancelled");
+                }
+                outcome = FetchJobEntry.OUTCOME_RELEASED;
+            } else {
+                // The stored forecast stays as it is until the retry
+                Log.e(LOG_TAG, "Fetch of " + job + " failed after " + job.attempts +
+                        " earlier failures", e);
+                error = e.toString();
+            }
+        } finally {
+            finish(job, outcome, error);
+        }
+        return outcome == FetchJobEntry.OUTCOME_DONE;
+    }
+
+    private void finish(Job job, int outcome, String error) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_JOB_ID, job.id);
+        extras.putLong(WeatherContract.EXTRA_CLAIMED_AT, job.claimedAt);
+        extras.putInt(WeatherContract.EXTRA_JOB_OUTCOME, outcome);
+        extras.putString(WeatherContract.EXTRA_JOB_ERROR, error);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_FINISH_FETCH_JOB, null, extras);
+        if (result != null && result.getInt(WeatherContract.RESULT_JOB_STATE) == -1) {
+            Log.w(LOG_TAG, "The claim on " + job + " was taken over before it finished");
+        }
+    }
+
+    // The city id the server gave the location before, 0 if there is none
+    private long loadCityId(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                CITY_ID_COLUMNS, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Resolves the location to its row, inserting it if it is new.
+     *
+     * @return the row ID of the location, or -1.
+     */
+    long resolveLocation(String locationSetting, String cityName, double lat, double lon) {
+        // The provider answers known locations from memory and otherwise looks the location
+        // up and inserts it if needed, so this is one round trip either way
+        Bundle extras = new Bundle();
+        extras.putString(WeatherContract.EXTRA_CITY_NAME, cityName);
+        extras.putDouble(WeatherContract.EXTRA_COORD_LAT, lat);
+        extras.putDouble(WeatherContract.EXTRA_COORD_LONG, lon);
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_RESOLVE_LOCATION, locationSetting, extras);
+        if (result == null) {
+            return -1;
+        }
+        return result.getLong(WeatherContract.RESULT_LOCATION_ID, -1);
+    }
+
+    private void store(ForecastBlock block) throws IOException {
+        long locationId = resolveLocation(block.locationSetting, block.cityName,
+                block.coordLat, block.coordLong);
+        if (locationId == -1) {
+            throw new IOException("Could not resolve " + block.locationSetting);
+        }
+
+        // The block travels as primitive arrays, and storing it stamps the location's
+        // fetched_at for the refresh policy
+        Bundle extras = block.toBundle();
+        extras.putLong(WeatherContract.EXTRA_LOCATION_ID, locationId);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BLOCK, null, extras);
+        if (result == null) {
+            throw new IOException("Could not store the forecast of " + block.locationSetting);
+        }
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Stored " + result.getInt(WeatherContract.RESULT_ROWS) + " days for " +
+                    block.locationSetting);
+        }
+    }
+}
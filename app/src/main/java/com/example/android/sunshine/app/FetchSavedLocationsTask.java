@@ -0,0 +1,53 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Refreshes every saved location other than the one on screen, which its own
+ * {@link FetchWeatherTask} takes care of.  Runs behind the visible fetch.
+ */
+public class FetchSavedLocationsTask extends FetchScheduler.Task<MultiLocationFetcher.Result> {
+
+    private static final String LOG_TAG = FetchSavedLocationsTask.class.getSimpleName();
+
+    private static final int NUM_DAYS = 14;
+
+    private final Context mContext;
+    private final String mVisibleLocation;
+    private final boolean mForceRefresh;
+
+    public FetchSavedLocationsTask(Context context, String visibleLocation,
+                                   boolean forceRefresh) {
+        mContext = context.getApplicationContext();
+        mVisibleLocation = visibleLocation;
+        mForceRefresh = forceRefresh;
+        setPriority(FetchScheduler.PRIORITY_BACKGROUND);
+    }
+
+    @Override
+    protected MultiLocationFetcher.Result doInBackground() throws Exception {
+        List<String> locations = MultiLocationFetcher.loadSavedLocations(mContext,
+                RefreshPolicy.fromResources(mContext), mForceRefresh);
+        locations.remove(mVisibleLocation);
+        MultiLocationFetcher.Result result =
+                MultiLocationFetcher.fromResources(mContext).fetchAll(locations, NUM_DAYS);
+
+        // Retried one by one, after the delay of a first failure
+        FetchJobWorker worker = new FetchJobWorker(mContext);
+        for (String location : result.failedLocations) {
+            worker.enqueue(location, NUM_DAYS, 1);
+        }
+        return result;
+    }
+
+    @Override
+    protected void onResult(MultiLocationFetcher.Result result) {
+        Log.d(LOG_TAG, "Saved locations: " + result);
+        if (!result.failedLocations.isEmpty()) {
+            FetchJobWorker.resume(mContext);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs forecast fetches on a small pool of its own, instead of the serial executor every
+ * AsyncTask in the process shares.
+ *
+ * Queued tasks run by priority, the location on screen first, then in the order they were
+ * submitted.  A task can be cancelled at any point: a queued one is dropped, and a running
+ * one has its worker interrupted and its HTTP connection disconnected, which makes a
+ * blocked socket read fail right away.  Results are delivered on the main thread, and never
+ * for a task cancelled before delivery, so a screen that cancels its tasks when it stops
+ * never hears from them again.
+ */
+public class FetchScheduler {
+
+    private static final String LOG_TAG = FetchScheduler.class.getSimpleName();
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    private static FetchScheduler sInstance;
+
+    // The task running on each worker, so the HTTP client can hand it its connection
+    private static final ThreadLocal<Task<?>> sCurrentTask = new ThreadLocal<Task<?>>();
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private final AtomicInteger mCompletedCount = new AtomicInteger();
+    private final AtomicInteger mCancelledCount = new AtomicInteger();
+    private final AtomicLong mWaitNanos = new AtomicLong();
+    private final AtomicLong mRunNanos = new AtomicLong();
+
+    /**
+     * Work done on a fetch worker, with its result handed to the main thread.
+     */
+    public abstract static class Task<R> implements Runnable, Comparable<Task<?>> {
+
+        private FetchScheduler mScheduler;
+        private int mPriority = PRIORITY_VISIBLE;
+        private long mSequence;
+        private long mSubmittedAt;
+
+        private volatile boolean mCancelled;
+        // Guarded by this
+        private Thread mWorker;
+        private HttpURLConnection mConnection;
+
+        /**
+         * Runs on a worker.  Should give up when {@link #isCancelled()} turns true.
+         */
+        protected abstract R doInBackground() throws Exception;
+
+        /**
+         * Runs on the main thread when doInBackground returned and the task was not cancelled.
+         */
+        protected void onResult(R result) {
+        }
+
+        /**
+         * Runs on the main thread when doInBackground threw and the task was not cancelled.
+         */
+        protected void onError(Exception e) {
+            Log.e(LOG_TAG, "Fetch task failed", e);
+        }
+
+        /**
+         * Sets where the task queues, before it is submitted.
+         */
+        public Task<R> setPriority(int priority) {
+            mPriority = priority;
+            return this;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Drops the task if it is queued, aborts it if it is running, and makes sure its
+         * result is not delivered.  Call it on the main thread.
+         */
+        public void cancel() {
+            HttpURLConnection connection;
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                if (mWorker != null) {
+                    mWorker.interrupt();
+                }
+                connection = mConnection;
+                mConnection = null;
+            }
+            if (mScheduler != null) {
+                mScheduler.mCancelledCount.incrementAndGet();
+                mScheduler.mExecutor.remove(this);
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+        @Override
+        public final void run() {
+            final FetchScheduler scheduler = mScheduler;
+            long started = System.nanoTime();
+            long waitNanos = started - mSubmittedAt;
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mWorker = Thread.currentThread();
+            }
+            sCurrentTask.set(this);
+            R result = null;
+            Exception error = null;
+            try {
+                result = doInBackground();
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                sCurrentTask.set(null);
+                synchronized (this) {
+                    mWorker = null;
+                    mConnection = null;
+                }
+                // Don't leave an interrupt from cancel() behind for the next task
+                Thread.interrupted();
+            }
+            long runNanos = System.nanoTime() - started;
+            scheduler.mWaitNanos.addAndGet(waitNanos);
+            scheduler.mRunNanos.addAndGet(runNanos);
+            scheduler.mCompletedCount.incrementAndGet();
+            if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, getClass().getSimpleName() + " waited " +
+                        (waitNanos / 1000000) + " ms, ran " + (runNanos / 1000000) + " ms" +
+                        (mCancelled ? ", cancelled" : ""));
+            }
+
+            final R deliveredResult = result;
+            final Exception deliveredError = error;
+            scheduler.mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        return;
+                    }
+                    if (deliveredError != null) {
+                        onError(deliveredError);
+                    } else {
+                        onResult(deliveredResult);
+                    }
+                }
+            });
+        }
+
+        // Returns false if the task is already cancelled, in which case nothing is kept
+        synchronized boolean attach(HttpURLConnection connection) {
+            if (mCancelled) {
+                return false;
+            }
+            mConnection = connection;
+            return true;
+        }
+
+        synchronized void detach(HttpURLConnection connection) {
+            if (mConnection == connection) {
+                mConnection = null;
+            }
+        }
+    }
+
+    public static synchronized FetchScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FetchScheduler(
+                    context.getResources().getInteger(R.integer.fetch_worker_threads));
+        }
+        return sInstance;
+    }
+
+    FetchScheduler(int threads) {
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "Fetch #" + mCount.incrementAndGet());
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a task.  Returns it, so the caller can keep it to cancel.
+     */
+    public <T extends Task<?>> T submit(T task) {
+        task.mScheduler = this;
+        task.mSequence = mSequence.incrementAndGet();
+        task.mSubmittedAt = System.nanoTime();
+        mExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Called by the HTTP client when it opens a connection, so cancelling the task running
+     * on this thread can disconnect it.  Returns false if that task is already cancelled.
+     */
+    static boolean onConnectionOpened(HttpURLConnection connection) {
+        Task<?> task = sCurrentTask.get();
+        return task == null || task.attach(connection);
+    }
+
+    /**
+     * Whether the task running on this thread has been cancelled.  False off the workers.
+     */
+    static boolean isCurrentTaskCancelled() {
+        Task<?> task = sCurrentTask.get();
+        return task != null && task.isCancelled();
+    }
+
+    /**
+     * Called by the HTTP client when a connection has been released.
+     */
+    static void onConnectionReleased(HttpURLConnection connection) {
+        Task<?> task = sCurrentTask.get();
+        if (task != null) {
+            task.detach(connection);
+        }
+    }
+
+    /**
+     * Number of tasks waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    public int getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    public int getCancelledCount() {
+        return mCancelledCount.get();
+    }
+
+    /**
+     * Average time a task that ran spent queued, in milliseconds.
+     */
+    public long getAverageWaitMillis() {
+        int completed = mCompletedCount.get();
+        return completed == 0 ? 0 : mWaitNanos.get() / completed / 1000000;
+    }
+
+    /**
+     * Average time a task that ran spent running, in milliseconds.
+     */
+    public long getAverageRunMillis() {
+        int completed = mCompletedCount.get();
+        return completed == 0 ? 0 : mRunNanos.get() / completed / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return "queued " + getQueueDepth() + ", completed " + getCompletedCount() +
+                ", cancelled " + getCancelledCount() + ", average wait " +
+                getAverageWaitMillis() + " ms, average run " + getAverageRunMillis() + " ms";
+    }
+}
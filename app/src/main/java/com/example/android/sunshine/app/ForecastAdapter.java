@@ -0,0 +1,209 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.support.v4.widget.CursorAdapter;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+/**
+ * {@link ForecastAdapter} exposes a list of weather forecasts from a {@link Cursor} to a
+ * {@link android.widget.ListView}.  Rows are formatted when they are bound, so only the rows
+ * that scroll into view are ever formatted.
+ *
+ * A new cursor is compared with the forecast on screen before it is shown.  If no day
+ * changed the list is not told at all, and otherwise each row view remembers the day it
+ * shows, so only rows whose day actually changed are formatted and set again.
+ */
+public class ForecastAdapter extends CursorAdapter {
+
+    private static final String LOG_TAG = ForecastAdapter.class.getSimpleName();
+
+    /**
+     * Cache of the children views for a forecast list item, and the day they show.
+     */
+    static class ViewHolder {
+        final TextView forecastView;
+        // The text shown, owned by this row since TextView keeps the array it is given
+        char[] text = new char[64];
+
+        // Copied out of the cursor rather than kept as Strings, so checking a row allocates
+        // nothing
+        final CharArrayBuffer boundLocation = new CharArrayBuffer(16);
+        final CharArrayBuffer boundDescription = new CharArrayBuffer(32);
+        boolean bound;
+        long boundDate;
+        double boundMaxTemp;
+        double boundMinTemp;
+        int boundWeatherId;
+        boolean boundMetric;
+
+        ViewHolder(View view) {
+            forecastView = (TextView) view.findViewById(R.id.list_item_forecast_textview);
+        }
+
+        /**
+         * Whether the view already shows the row the cursor is on.
+         *
+         * @param scratch where the row's text columns are copied to compare them.
+         */
+        boolean shows(Cursor cursor, boolean isMetric, CharArrayBuffer scratch) {
+            return bound && boundMetric == isMetric &&
+                    boundDate == cursor.getLong(ForecastFragment.COL_WEATHER_DATE) &&
+                    boundMaxTemp == cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP) &&
+                    boundMinTemp == cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP) &&
+                    boundWeatherId == cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID) &&
+                    sameText(cursor, ForecastFragment.COL_LOCATION_SETTING, boundLocation,
+                            scratch) &&
+                    sameText(cursor, ForecastFragment.COL_WEATHER_DESC, boundDescription,
+                            scratch);
+        }
+
+        void remember(Cursor cursor, boolean isMetric) {
+            bound = true;
+            boundMetric = isMetric;
+            cursor.copyStringToBuffer(ForecastFragment.COL_LOCATION_SETTING, boundLocation);
+            boundDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            cursor.copyStringToBuffer(ForecastFragment.COL_WEATHER_DESC, boundDescription);
+            boundMaxTemp = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+            boundMinTemp = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+            boundWeatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        }
+
+        private static boolean sameText(Cursor cursor, int column, CharArrayBuffer bound,
+                                        CharArrayBuffer scratch) {
+            cursor.copyStringToBuffer(column, scratch);
+            int length = scratch.sizeCopied;
+            if (length != bound.sizeCopied) {
+                return false;
+            }
+            char[] expected = bound.data;
+            char[] actual = scratch.data;
+            for (int i = 0; i < length; i++) {
+                if (expected[i] != actual[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // What is on screen, to diff the next cursor against
+    private ForecastDiff.Snapshot mShown = ForecastDiff.Snapshot.EMPTY;
+    private ForecastDiff.Result mLastDiff;
+    // Rows are bound on the main thread only, so the views share one
+    private final CharArrayBuffer mScratch = new CharArrayBuffer(32);
+    private boolean mQuietSwap;
+    private boolean mIsMetric;
+    private int mRowsRebound;
+    private int mRowsSkipped;
+
+    public ForecastAdapter(Context context, Cursor c, int flags) {
+        super(context, c, flags);
+        mIsMetric = Utility.isMetric(context);
+    }
+
+    /**
+     * Shows temperatures in other units.  The days already loaded are formatted again as the
+     * list binds them; nothing is read from the database or the network.
+     */
+    public void setMetric(boolean isMetric) {
+        if (isMetric != mIsMetric) {
+            mIsMetric = isMetric;
+            super.notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Swaps in a new cursor, telling the list only if a day was inserted, removed or changed.
+     */
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        ForecastDiff.Snapshot snapshot = ForecastDiff.Snapshot.fromCursor(newCursor);
+        mLastDiff = ForecastDiff.diff(mShown, snapshot);
+        mShown = snapshot;
+        mQuietSwap = mLastDiff.isEmpty() && newCursor != null;
+        try {
+            return super.swapCursor(newCursor);
+        } finally {
+            mQuietSwap = false;
+            if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+                Log.v(LOG_TAG, "Swapped forecast: " + mLastDiff);
+            }
+        }
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        if (!mQuietSwap) {
+            super.notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * The operations that took the previous forecast to the one shown now.
+     */
+    public ForecastDiff.Result getLastDiff() {
+        return mLastDiff;
+    }
+
+    /**
+     * Number of times a row was formatted and set on its view.
+     */
+    public int getRowsRebound() {
+        return mRowsRebound;
+    }
+
+    /**
+     * Number of times a row view already showed the day it was bound to.
+     */
+    public int getRowsSkipped() {
+        return mRowsSkipped;
+    }
+
+    /*
+     * Remember that these views are reused as needed.
+     */
+    @Override
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item_forecast, parent, false);
+        view.setTag(new ViewHolder(view));
+        return view;
+    }
+
+    /*
+     * This is where we fill-in the views with the contents of the cursor.
+     */
+    @Override
+    public void bindView(View view, Context context, Cursor cursor) {
+        ViewHolder viewHolder = (ViewHolder) view.getTag();
+        if (viewHolder.shows(cursor, mIsMetric, mScratch)) {
+            mRowsSkipped++;
+            return;
+        }
+        StringBuilder row = ForecastFormatter.forThread().formatRow(cursor, mIsMetric);
+        int length = row.length();
+        if (viewHolder.text.length < length) {
+            viewHolder.text = new char[length];
+        }
+        row.getChars(0, length, viewHolder.text, 0);
+        viewHolder.forecastView.setText(viewHolder.text, 0, length);
+        viewHolder.remember(cursor, mIsMetric);
+        mRowsRebound++;
+    }
+
+    /*
+     * The row the cursor is on, as "date - description - high/low".
+     */
+    static String convertCursorRowToUXFormat(Context context, Cursor cursor) {
+        return convertCursorRowToUXFormat(cursor, Utility.isMetric(context));
+    }
+
+    static String convertCursorRowToUXFormat(Cursor cursor, boolean isMetric) {
+        return ForecastFormatter.forThread().formatRow(cursor, isMetric).toString();
+    }
+}
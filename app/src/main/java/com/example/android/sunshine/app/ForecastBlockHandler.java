@@ -0,0 +1,57 @@
+package com.example.android.sunshine.app;
+
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastBlock;
+
+/**
+ * Collects the days handed out by the {@link ForecastJsonParser} into a {@link ForecastBlock},
+ * converting each day's position in the list into a normalized UTC date on the way.
+ */
+public class ForecastBlockHandler implements ForecastJsonParser.Handler {
+
+    private final ForecastBlock.Builder mBuilder;
+    private final Time mDayTime;
+    private final int mJulianStartDay;
+
+    public ForecastBlockHandler(String locationSetting, int expectedDays) {
+        mBuilder = new ForecastBlock.Builder(locationSetting, expectedDays);
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        mDayTime = new Time();
+    }
+
+    @Override
+    public void onCity(String cityName, double lat, double lon, long cityId) {
+        mBuilder.setCity(cityName, lat, lon).setCityId(cityId);
+    }
+
+    @Override
+    public void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                      double windDirection, double high, double low,
+                      String description, int weatherId) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        long dateTime = mDayTime.setJulianDay(mJulianStartDay + dayIndex);
+
+        mBuilder.add(dateTime, low, high, pressure, windSpeed, windDirection, weatherId,
+                humidity, description);
+    }
+
+    public ForecastBlock getForecastBlock() {
+        return mBuilder.build();
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Works out what changed between the forecast on screen and a newly loaded one.
+ *
+ * Days are keyed by (location, normalized date).  Both snapshots are in date order, as the
+ * list query returns them, so one pass over the two is enough to pair up the days and tell
+ * inserted, removed, changed and unchanged ones apart.
+ */
+public class ForecastDiff {
+
+    public static final int INSERT = 0;
+    public static final int REMOVE = 1;
+    public static final int CHANGE = 2;
+
+    /**
+     * The days of one load, column by column, in date order.
+     */
+    public static class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(null, 0);
+
+        public final String locationSetting;
+        public final int size;
+        final long[] date;
+        final String[] description;
+        final double[] maxTemp;
+        final double[] minTemp;
+        final int[] weatherId;
+
+        Snapshot(String locationSetting, int size) {
+            this.locationSetting = locationSetting;
+            this.size = size;
+            date = new long[size];
+            description = new String[size];
+            maxTemp = new double[size];
+            minTemp = new double[size];
+            weatherId = new int[size];
+        }
+
+        /**
+         * Reads every row of a cursor over ForecastFragment.FORECAST_COLUMNS.  The cursor is
+         * left where it was.
+         */
+        public static Snapshot fromCursor(Cursor cursor) {
+            if (cursor == null || cursor.getCount() == 0) {
+                return EMPTY;
+            }
+            int position = cursor.getPosition();
+            cursor.moveToFirst();
+            Snapshot snapshot = new Snapshot(
+                    cursor.getString(ForecastFragment.COL_LOCATION_SETTING), cursor.getCount());
+            for (int i = 0; i < snapshot.size; i++, cursor.moveToNext()) {
+                snapshot.date[i] = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+                snapshot.description[i] = cursor.getString(ForecastFragment.COL_WEATHER_DESC);
+                snapshot.maxTemp[i] = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+                snapshot.minTemp[i] = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+                snapshot.weatherId[i] = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            }
+            cursor.moveToPosition(position);
+            return snapshot;
+        }
+
+        boolean sameDay(int i, Snapshot other, int j) {
+            return description[i].equals(other.description[j]) &&
+                    maxTemp[i] == other.maxTemp[j] &&
+                    minTemp[i] == other.minTemp[j] &&
+                    weatherId[i] == other.weatherId[j];
+        }
+    }
+
+    /**
+     * One step of the update.  INSERT and CHANGE positions are in the new snapshot, REMOVE
+     * positions in the old one.
+     */
+    public static class Op {
+        public final int type;
+        public final int position;
+
+        Op(int type, int position) {
+            this.type = type;
+            this.position = position;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Op && ((Op) o).type == type && ((Op) o).position == position;
+        }
+
+        @Override
+        public int hashCode() {
+            return type * 31 + position;
+        }
+
+        @Override
+        public String toString() {
+            return (type == INSERT ? "insert " : type == REMOVE ? "remove " : "change ") +
+                    position;
+        }
+    }
+
+    /**
+     * The operations that turn the old snapshot into the new one.
+     */
+    public static class Result {
+        public final List<Op> ops = new ArrayList<Op>();
+        public int inserted;
+        public int removed;
+        public int changed;
+        public int unchanged;
+
+        public boolean isEmpty() {
+            return ops.isEmpty();
+        }
+
+        /**
+         * Whether the rows only changed in place, so the list keeps its shape.
+         */
+        public boolean isChangeOnly() {
+            return inserted == 0 && removed == 0;
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " inserted, " + removed + " removed, " + changed + " changed, " +
+                    unchanged + " unchanged";
+        }
+    }
+
+    public static Result diff(Snapshot oldSnapshot, Snapshot newSnapshot) {
+        Result result = new Result();
+        boolean sameLocation = oldSnapshot.locationSetting != null &&
+                oldSnapshot.locationSetting.equals(newSnapshot.locationSetting);
+        if (!sameLocation) {
+            // Nothing on screen can be kept for another location
+            for (int i = oldSnapshot.size - 1; i >= 0; i--) {
+                result.ops.add(new Op(REMOVE, i));
+                result.removed++;
+            }
+            for (int j = 0; j < newSnapshot.size; j++) {
+                result.ops.add(new Op(INSERT, j));
+                result.inserted++;
+            }
+            return result;
+        }
+
+        int i = 0;
+        int j = 0;
+        while (i < oldSnapshot.size || j < newSnapshot.size) {
+            if (j == newSnapshot.size ||
+                    (i < oldSnapshot.size && oldSnapshot.date[i] < newSnapshot.date[j])) {
+                result.ops.add(new Op(REMOVE, i));
+                result.removed++;
+                i++;
+            } else if (i == oldSnapshot.size || newSnapshot.date[j] < oldSnapshot.date[i]) {
+                result.ops.add(new Op(INSERT, j));
+                result.inserted++;
+                j++;
+            } else {
+                if (oldSnapshot.sameDay(i, newSnapshot, j)) {
+                    result.unchanged++;
+                } else {
+                    result.ops.add(new Op(CHANGE, j));
+                    result.changed++;
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastBlock;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches and parses forecasts, making sure only one request per location and parameters is
+ * in flight at a time.
+ *
+ * A caller asking for a forecast that is already being fetched waits for that fetch instead
+ * of starting its own, and gets the same ForecastBlock back.  The block is shared between
+ * those callers, so none of them may modify it.  When the caller running the request is a
+ * {@link FetchScheduler} task that gets cancelled, the callers that joined it start the
+ * request again instead of failing with it.
+ */
+public class ForecastFetchCoordinator {
+
+    // Longer than Log.isLoggable() allows before API 24, so debug logs check BuildConfig.DEBUG
+    private static final String LOG_TAG = ForecastFetchCoordinator.class.getSimpleName();
+
+    private static final String QUERY_PARAM = "q";
+    private static final String CITY_ID_PARAM = "id";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+
+    private static ForecastFetchCoordinator sInstance;
+
+    private final ForecastHttpClient mClient;
+    private final ForecastResponseCache mCache;
+
+    // Keyed by the request by location setting, as normalized by the response cache
+    private final ConcurrentHashMap<String, FutureTask<ForecastBlock>> mInFlight =
+            new ConcurrentHashMap<String, FutureTask<ForecastBlock>>();
+
+    private final AtomicInteger mFetchCount = new AtomicInteger();
+    private final AtomicInteger mCoalescedCount = new AtomicInteger();
+
+    public static synchronized ForecastFetchCoordinator getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastFetchCoordinator(ForecastHttpClient.getInstance(context),
+                    ForecastResponseCache.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    ForecastFetchCoordinator(ForecastHttpClient client, ForecastResponseCache cache) {
+        mClient = client;
+        mCache = cache;
+    }
+
+    /**
+     * Number of fetches that actually went to the response cache or network.
+     */
+    public int getFetchCount() {
+        return mFetchCount.get();
+    }
+
+    /**
+     * Number of callers that were handed the result of a fetch already in flight.
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * Returns the forecast for the location, joining a fetch already in flight for the same
+     * request if there is one.  Blocks, call it off the main thread.
+     */
+    public ForecastBlock fetch(String locationSetting, int numDays) throws IOException {
+        return fetch(locationSetting, 0, numDays);
+    }
+
+    /**
+     * Same as {@link #fetch(String, int)}, asking for the city by the id the server gave it
+     * before when cityId is known, rather than having the server search for the setting.
+     */
+    public ForecastBlock fetch(final String locationSetting, long cityId, final int numDays)
+            throws IOException {
+        final Uri uri = buildForecastUri(locationSetting, cityId, numDays);
+        // Asking by city id or by setting is the same forecast, so both share the key of the
+        // request by setting, for joining a fetch in flight and for the response cache
+        final String key = cityId > 0 ?
+                ForecastResponseCache.cacheKey(buildForecastUri(locationSetting, 0, numDays)) :
+                ForecastResponseCache.cacheKey(uri);
+
+        while (true) {
+            FutureTask<ForecastBlock> task = new FutureTask<ForecastBlock>(
+                    new Callable<ForecastBlock>() {
+                        @Override
+                        public ForecastBlock call() throws IOException {
+                            try {
+                                return fetchAndParse(uri, key, locationSetting, numDays);
+                            } catch (IOException e) {
+                                // The connection belongs to the leader's task, so cancelling
+                                // it breaks the fetch for everyone who joined
+                                if (FetchScheduler.isCurrentTaskCancelled()) {
+                                    throw new LeaderCancelledException(e);
+                                }
+                                throw e;
+                            }
+                        }
+                    });
+            FutureTask<ForecastBlock> inFlight = mInFlight.putIfAbsent(key, task);
+            boolean leader = inFlight == null;
+            if (leader) {
+                try {
+                    task.run();
+                } finally {
+                    mInFlight.remove(key, task);
+                }
+            } else {
+                mCoalescedCount.incrementAndGet();
+                if (BuildConfig.DEBUG) {
+                    Log.d(LOG_TAG, "Joining the fetch in flight for " + locationSetting);
+                }
+                task = inFlight;
+            }
+
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + locationSetting);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof LeaderCancelledException && !leader) {
+                    // Only the leader was cancelled, this caller still wants the forecast
+                    // and starts the fetch again, or joins whoever did first
+                    if (BuildConfig.DEBUG) {
+                        Log.d(LOG_TAG, "The fetch joined for " + locationSetting +
+                                " was cancelled, fetching again");
+                    }
+                    mInFlight.remove(key, task);
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException("Fetching " + locationSetting + " failed", cause);
+            }
+        }
+    }
+
+    private Uri buildForecastUri(String locationSetting, long cityId, int numDays) {
+        Uri.Builder builder = mClient.buildForecastUri();
+        if (cityId > 0) {
+            builder.appendQueryParameter(CITY_ID_PARAM, Long.toString(cityId));
+        } else {
+            builder.appendQueryParameter(QUERY_PARAM, locationSetting);
+        }
+        return builder
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    private ForecastBlock fetchAndParse(Uri uri, String key, String locationSetting,
+                                        int numDays) throws IOException {
+        mFetchCount.incrementAndGet();
+        ForecastResponseCache.Response response = mCache.open(uri, key);
+        try {
+            if (BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, "Forecast response source " + response.source + ", " + mCache);
+            }
+            ForecastBlockHandler handler = new ForecastBlockHandler(locationSetting, numDays);
+            // The body is only cached if it is marked complete before it is closed
+            ForecastJsonParser.parseDocument(response.body, handler);
+            ForecastBlock block = handler.getForecastBlock();
+            response.markComplete();
+            return block;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * The fetch failed because the task of the caller running it was cancelled, which says
+     * nothing about the callers that joined it.
+     */
+    private static class LeaderCancelledException extends InterruptedIOException {
+        LeaderCancelledException(IOException cause) {
+            super("Fetch cancelled: " + cause.getMessage());
+            initCause(cause);
+        }
+    }
+}
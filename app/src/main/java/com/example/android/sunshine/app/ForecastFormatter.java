@@ -0,0 +1,122 @@
+package com.example.android.sunshine.app;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats forecast rows as "date - description - high/low" without allocating.
+ *
+ * Day labels are formatted once per normalized day and locale and kept.  Each row is then
+ * assembled in a reused StringBuilder, with the description copied out of the cursor into a
+ * reused buffer and temperatures written digit by digit.  Once the labels of the days on
+ * screen are known, formatting a row allocates nothing.
+ *
+ * An instance belongs to one thread; {@link #forThread()} hands each thread its own.
+ */
+public class ForecastFormatter {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // A power of two comfortably above the days of one forecast
+    private static final int DAY_LABEL_SLOTS = 64;
+
+    private static final ThreadLocal<ForecastFormatter> sFormatters =
+            new ThreadLocal<ForecastFormatter>() {
+                @Override
+                protected ForecastFormatter initialValue() {
+                    return new ForecastFormatter();
+                }
+            };
+
+    private final long[] mLabelDays = new long[DAY_LABEL_SLOTS];
+    private final String[] mLabels = new String[DAY_LABEL_SLOTS];
+    private Locale mLabelLocale;
+    private SimpleDateFormat mDateFormat;
+    private final Date mDate = new Date();
+
+    private final StringBuilder mBuilder = new StringBuilder(64);
+    private final CharArrayBuffer mDescription = new CharArrayBuffer(32);
+    private final char[] mDigits = new char[20];
+
+    /**
+     * The formatter of the calling thread.
+     */
+    public static ForecastFormatter forThread() {
+        return sFormatters.get();
+    }
+
+    ForecastFormatter() {
+    }
+
+    /**
+     * Formats the row the cursor is on, which must follow ForecastFragment.FORECAST_COLUMNS.
+     * The result is only valid until this formatter is used again.
+     */
+    public StringBuilder formatRow(Cursor cursor, boolean isMetric) {
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        builder.append(getDayLabel(cursor.getLong(ForecastFragment.COL_WEATHER_DATE)));
+        builder.append(" - ");
+        cursor.copyStringToBuffer(ForecastFragment.COL_WEATHER_DESC, mDescription);
+        builder.append(mDescription.data, 0, mDescription.sizeCopied);
+        builder.append(" - ");
+        appendTemperature(cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP), isMetric);
+        builder.append('/');
+        appendTemperature(cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP), isMetric);
+        return builder;
+    }
+
+    /**
+     * The label of a normalized day in the default locale, such as "Thu, Dec 25".
+     */
+    public String getDayLabel(long dateInMillis) {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mLabelLocale)) {
+            mLabelLocale = locale;
+            mDateFormat = new SimpleDateFormat("E, MMM d", locale);
+            Arrays.fill(mLabels, null);
+        }
+        int slot = (int) (dateInMillis / DAY_IN_MILLIS) & (DAY_LABEL_SLOTS - 1);
+        if (mLabels[slot] == null || mLabelDays[slot] != dateInMillis) {
+            mDate.setTime(dateInMillis);
+            mLabels[slot] = mDateFormat.format(mDate);
+            mLabelDays[slot] = dateInMillis;
+        }
+        return mLabels[slot];
+    }
+
+    /**
+     * Formats a Celsius temperature the way {@link #formatRow} shows it.  Temperatures are
+     * stored in Celsius, so the user can switch units without a refetch.  The result is only
+     * valid until this formatter is used again.
+     */
+    public StringBuilder formatTemperature(double temperature, boolean isMetric) {
+        mBuilder.setLength(0);
+        appendTemperature(temperature, isMetric);
+        return mBuilder;
+    }
+
+    /**
+     * Appends a Celsius temperature, converted if needed and rounded to a whole degree.
+     */
+    void appendTemperature(double temperature, boolean isMetric) {
+        if (!isMetric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        long degrees = Math.round(temperature);
+        if (degrees < 0) {
+            mBuilder.append('-');
+        }
+        int start = mDigits.length;
+        do {
+            mDigits[--start] = (char) ('0' + Math.abs(degrees % 10));
+            degrees /= 10;
+        } while (degrees != 0);
+        mBuilder.append(mDigits, start, mDigits.length - start);
+    }
+}
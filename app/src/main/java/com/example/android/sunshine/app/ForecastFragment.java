@@ -1,14 +1,17 @@
 package com.example.android.sunshine.app;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.IntentFilter;
+import android.database.Cursor;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
-import android.text.format.Time;
-import android.util.Log;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.support.v4.content.LocalBroadcastManager;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -16,21 +19,10 @@ import android.view.MenuInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.ListView;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Created by hanssi on 9/23/16.
@@ -39,9 +31,52 @@ import java.util.ArrayList;
 /**
  * Encapsulates fetching the forecast and displaying it as a ListView layout
  */
-public class ForecastFragment extends Fragment {
-
-    ArrayAdapter<String> mForecastAdapter;
+public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    private static final int FORECAST_LOADER = 0;
+
+    // The stored forecast columns the list is built from.  The _id is qualified because
+    // both tables in the join have one.
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
+    // must change.
+    static final int COL_WEATHER_ID = 0;
+    static final int COL_WEATHER_DATE = 1;
+    static final int COL_WEATHER_DESC = 2;
+    static final int COL_WEATHER_MAX_TEMP = 3;
+    static final int COL_WEATHER_MIN_TEMP = 4;
+    static final int COL_WEATHER_CONDITION_ID = 5;
+    static final int COL_LOCATION_SETTING = 6;
+
+    ForecastAdapter mForecastAdapter;
+
+    // The location the loader was started for
+    private String mLocation;
+
+    // The fetches started for this screen, cancelled when it stops
+    private FetchWeatherTask mFetchTask;
+    private FetchSavedLocationsTask mSavedLocationsTask;
+
+    // Formats the loaded days again when the units change, even while the settings
+    // are in front, so the list is right on the first frame back
+    private final BroadcastReceiver mUnitsReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mForecastAdapter != null) {
+                mForecastAdapter.setMetric(
+                        intent.getBooleanExtra(SettingsActivity.EXTRA_IS_METRIC, true));
+            }
+        }
+    };
 
     public ForecastFragment() {
 
@@ -51,6 +86,14 @@ public class ForecastFragment extends Fragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setHasOptionsMenu(true);
+        LocalBroadcastManager.getInstance(getActivity()).registerReceiver(mUnitsReceiver,
+                new IntentFilter(SettingsActivity.ACTION_UNITS_CHANGED));
+    }
+
+    @Override
+    public void onDestroy() {
+        LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mUnitsReceiver);
+        super.onDestroy();
     }
 
     @Override
@@ -62,7 +105,8 @@ public class ForecastFragment extends Fragment {
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
         if(id == R.id.action_refresh) {
-            updateWeather();
+            // An explicit refresh always asks the server
+            updateWeather(true);
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -72,17 +116,13 @@ public class ForecastFragment extends Fragment {
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
 
-        // Create an ArrayAdapter which takes data from a source and use it
-        // to populate the ListView it is attached to
-        mForecastAdapter = new ArrayAdapter<String>(
-                getActivity(), // The current context (main activity)
-                R.layout.list_item_forecast, // The ID of the layout
-                R.id.list_item_forecast_textview, // The ID of the TextView to populate
-                new ArrayList<String>());
+        // The CursorAdapter will take data from our cursor and populate the ListView.
+        // The loader owns the cursor and requeries it on change, so no flags.
+        mForecastAdapter = new ForecastAdapter(getActivity(), null, 0);
 
         View rootView = inflater.inflate(R.layout.fragment_main, container, false);
 
-        // Get a reference to the ListView and attach the ArrayAdapter to it
+        // Get a reference to the ListView and attach the adapter to it
         ListView listView = (ListView) rootView.findViewById(R.id.listview_forecast);
         listView.setAdapter(mForecastAdapter);
 
@@ -91,10 +131,16 @@ public class ForecastFragment extends Fragment {
 
             @Override
             public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                String forecast = mForecastAdapter.getItem(position);
-                Intent intent = new Intent(getActivity(), DetailActivity.class)
-                        .putExtra(Intent.EXTRA_TEXT, forecast);
-                startActivity(intent);
+                // CursorAdapter returns a cursor at the correct position for getItem(), or null
+                // if it cannot seek to that position.
+                Cursor cursor = (Cursor) adapterView.getItemAtPosition(position);
+                if (cursor != null) {
+                    String forecast = ForecastAdapter.convertCursorRowToUXFormat(getActivity(),
+                            cursor);
+                    Intent intent = new Intent(getActivity(), DetailActivity.class)
+                            .putExtra(Intent.EXTRA_TEXT, forecast);
+                    startActivity(intent);
+                }
             }
 
         });
@@ -102,221 +148,81 @@ public class ForecastFragment extends Fragment {
         return rootView;
     }
 
-    private void updateWeather() {
-        FetchWeatherTask weatherTask = new FetchWeatherTask();
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        String location = preferences.getString(getString(R.string.pref_location_key),
-                getString(R.string.pref_location_default));
-        weatherTask.execute(location);
-    }
-
     @Override
-    public void onStart() {
-        super.onStart();
-        updateWeather();
+    public void onActivityCreated(Bundle savedInstanceState) {
+        mLocation = Utility.getPreferredLocation(getActivity());
+        getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        super.onActivityCreated(savedInstanceState);
     }
 
-    public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
-
-        private final String LOG_TAG = FetchWeatherTask.class.getSimpleName();
-
-        private String getReadableDateString(long time) {
-            // Since the API returns a unix timestamp
-            // Convert it to milliseconds in order to be converted to valid date
-            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-            return shortenedDateFormat.format(time);
+    /**
+     * Fetches a new forecast in the background if the stored one is older than the refresh
+     * policy allows or forceRefresh is set.  The list follows the stored forecast on its own.
+     */
+    private void updateWeather(boolean forceRefresh) {
+        cancelFetches();
+        FetchScheduler scheduler = FetchScheduler.getInstance(getActivity());
+        String location = Utility.getPreferredLocation(getActivity());
+        mFetchTask = scheduler.submit(new FetchWeatherTask(getActivity())
+                .setLocation(location)
+                .setForceRefresh(forceRefresh));
+        if (WeatherSettings.get(getActivity()).refreshSavedLocations) {
+            mSavedLocationsTask = scheduler.submit(
+                    new FetchSavedLocationsTask(getActivity(), location, forceRefresh));
         }
+    }
 
-        /**
-         * Prepares the temperature high/lows for presentation
-         */
-        private String formatHighLows(double high, double low, String unitType) {
-
-            if(unitType.equals(getString(R.string.pref_units_imperial))) {
-                high = (high * 1.8) + 32;
-                low = (low * 1.8) + 32;
-            }
-            else if(!unitType.equals(getString(R.string.pref_units_metric))) {
-                Log.d(LOG_TAG, "Unit type not found: " + unitType);
-            }
-
-            // Round digits of the temperature to integers
-            long roundHigh = Math.round(high);
-            long roundLow = Math.round(low);
-
-            String highLowStr = roundHigh + "/" + roundLow;
-            return highLowStr;
+    private void cancelFetches() {
+        if (mFetchTask != null) {
+            mFetchTask.cancel();
+            mFetchTask = null;
         }
+        if (mSavedLocationsTask != null) {
+            mSavedLocationsTask.cancel();
+            mSavedLocationsTask = null;
+        }
+    }
 
-        /**
-         * Take the String representing the complete forecast in JSON format and pull out
-         * the data needed to construct the Strings needed for the wireframes
-         *
-         * Constructor takes a JSON String and converts it into an Object hierarchy
-         */
-        private String[] getWeatherDataFromJson(String forecastJsonStr, int numDays)
-                throws JSONException {
-            // Names of JSON objects needed to be extracted
-            final String OWM_LIST = "list";
-            final String OWM_WEATHER = "weather";
-            final String OWM_TEMPERATURE = "temp";
-            final String OWM_MAX = "max";
-            final String OWM_MIN = "min";
-            final String OWM_DESCRIPTION = "main";
-
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, thus the GMT offset is needed to translate this data properly
-            // This data is sent in-order and the first day is always the current day
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // Start at the day returned by local time
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // Work exclusively in UTC
-            dayTime = new Time();
-
-            String[] resultStrs = new String[numDays];
-
-            // Data is fetched in Celsius in default
-            // Data in Celsius is stored in database
-            // User has the option to convert into Fahrenheit
-            SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
-            String unitType = sharedPreferences.getString(
-                    getString(R.string.pref_units_key),
-                    getString(R.string.pref_units_metric));
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // Format: Day, description, high/low
-                String day;
-                String description;
-                String highAndLow;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // The date/time is returned as type long in julian day
-                // Convert it into UTC time
-                long dateTime;
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-                day = getReadableDateString(dateTime);
-
-                // The description is in a child array called "weather", which is 1 element long
-                JSONObject weatherObject = dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-
-                // The temperatures are in a child object called "temp"
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                double high = temperatureObject.getDouble(OWM_MAX);
-                double low = temperatureObject.getDouble(OWM_MIN);
-                highAndLow = formatHighLows(high, low, unitType);
-                resultStrs[i] = day + " - " + description + " - " + highAndLow;
-            }
-
-            return resultStrs;
+    @Override
+    public void onStart() {
+        super.onStart();
+        // The location may have been changed in the settings
+        String location = Utility.getPreferredLocation(getActivity());
+        if (!location.equals(mLocation)) {
+            mLocation = location;
+            getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
         }
+        // In case the units changed while this fragment was not around to hear it
+        mForecastAdapter.setMetric(Utility.isMetric(getActivity()));
+        updateWeather(false);
+    }
 
-        @Override
-        protected String[] doInBackground(String... params) {
-
-            // If there is no zip code, there is nothing to look up
-            if(params.length == 0)
-                return null;
-
-            HttpURLConnection urlConnection = null;
-            BufferedReader reader = null;
-
-            // Contains the raw JSON response as a string
-            String forecastJsonStr = null;
-
-            String format = "json";
-            String units = "metric";
-            int numDays = 7;
-
-            try {
-                // Construct the URL for the OpenWeatherMap query
-                final String FORECAST_BASE_URL =
-                        "http://api.openweathermap.org/data/2.5/forecast/daily?";
-                final String QUERY_PARAM = "q";
-                final String FORMAT_PARAM = "mode";
-                final String UNITS_PARAM = "units";
-                final String DAYS_PARAM = "cnt";
-                final String APPID_PARAM = "APPID";
-
-                Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                        .appendQueryParameter(QUERY_PARAM, params[0])
-                        .appendQueryParameter(FORMAT_PARAM, format)
-                        .appendQueryParameter(UNITS_PARAM, units)
-                        .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                        .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                        .build();
-
-                URL url = new URL(builtUri.toString());
-
-                // Create the request to OpenWeatherMap and open the connection
-                urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setRequestMethod("GET");
-                urlConnection.connect();
-
-                // Read the input steam into a String
-                InputStream inputStream = urlConnection.getInputStream();
-                StringBuffer buffer = new StringBuffer();
-                if(inputStream == null)
-                    // Nothing to do
-                    return null;
-                reader = new BufferedReader(new InputStreamReader(inputStream));
-
-                String line;
-                while((line = reader.readLine()) != null)
-                    buffer.append(line + "\n");
-                if(buffer.length() == 0)
-                    // String is empty, nothing in parsing
-                    return null;
-                forecastJsonStr = buffer.toString();
-            }
-            catch(IOException e) {
-                Log.e(LOG_TAG, "Error ", e);
-                // If there is an exception, no need to attempt to parse it
-                return null;
-            }
-            finally {
-                if(urlConnection != null)
-                    urlConnection.disconnect();
-                if(reader != null) {
-                    try {
-                        reader.close();
-                    }
-                    catch(final IOException e) {
-                        Log.e(LOG_TAG, "Error closing stream", e);
-                    }
-                }
-            }
+    @Override
+    public void onStop() {
+        cancelFetches();
+        super.onStop();
+    }
 
-            try {
-                return getWeatherDataFromJson(forecastJsonStr, numDays);
-            }
-            catch(JSONException e) {
-                Log.e(LOG_TAG, e.getMessage(), e);
-                e.printStackTrace();
-            }
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // Today and the days after it, oldest first
+        Uri weatherForLocationUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                mLocation, System.currentTimeMillis());
+        return new CursorLoader(getActivity(),
+                weatherForLocationUri,
+                FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
 
-            // This will only happen if there was an error getting or parsing the forecast
-            return null;
-        }
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        mForecastAdapter.swapCursor(cursor);
+    }
 
-        /**
-         * Update the Adapter so that the new data is displayed
-         */
-        @Override
-        protected void onPostExecute(String[] result) {
-            if(result != null) {
-                mForecastAdapter.clear();
-                for(String dayForecastStr : result)
-                    mForecastAdapter.add(dayForecastStr);
-            }
-        }
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mForecastAdapter.swapCursor(null);
     }
 }
@@ -0,0 +1,322 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one HTTP client every forecast request goes through.
+ *
+ * HttpURLConnection keeps a pool of keep-alive connections per host, but only hands a socket
+ * back to the pool when its response body was read to the end and closed, and disconnect()
+ * throws it away.  Exchanges are therefore always finished by draining and closing the body,
+ * never by disconnecting.  Responses are requested gzipped and inflated here, so the transfer
+ * counters see the bytes that actually crossed the wire.
+ *
+ * Every request waits for its slot on the client's {@link HostRateLimiter}, so the fetch
+ * paths together, not each on its own, stay within the rate configured for the host.
+ */
+public class ForecastHttpClient {
+
+    private static final String LOG_TAG = ForecastHttpClient.class.getSimpleName();
+
+    private static ForecastHttpClient sInstance;
+
+    private final Uri mBaseUri;
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final HostRateLimiter mRateLimiter;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+
+    /**
+     * How long the phases of one exchange took.  The connect phase is close to zero when a
+     * pooled connection was reused.
+     */
+    public static class Timings {
+        public long connectNanos;
+        public long firstByteNanos;
+        public long transferNanos;
+        // Body bytes as received, before inflating
+        public long bytesOnWire;
+
+        @Override
+        public String toString() {
+            return "connect " + (connectNanos / 1000) + " us, first byte " +
+                    (firstByteNanos / 1000) + " us, transfer " + (transferNanos / 1000) +
+                    " us, " + bytesOnWire + " bytes on the wire";
+        }
+    }
+
+    /**
+     * A response whose headers have arrived.  Closing it, or its body, finishes reading the
+     * body so the connection can go back to the pool.
+     */
+    public static class Exchange implements Closeable {
+        public final int responseCode;
+        public final InputStream body;
+        public final Timings timings;
+        private final HttpURLConnection mConnection;
+
+        Exchange(int responseCode, InputStream body, Timings timings,
+                 HttpURLConnection connection) {
+            this.responseCode = responseCode;
+            this.body = body;
+            this.timings = timings;
+            mConnection = connection;
+        }
+
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        public long getExpiration() {
+            return mConnection.getExpiration();
+        }
+
+        @Override
+        public void close() {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // ReleasingInputStream already dealt with it
+            }
+        }
+    }
+
+    public static synchronized ForecastHttpClient getInstance(Context context) {
+        if (sInstance == null) {
+            Resources resources = context.getResources();
+            sInstance = new ForecastHttpClient(
+                    Uri.parse(resources.getString(R.string.forecast_base_url)),
+                    resources.getInteger(R.integer.forecast_connect_timeout_ms),
+                    resources.getInteger(R.integer.forecast_read_timeout_ms),
+                    new HostRateLimiter(
+                            resources.getInteger(R.integer.forecast_host_requests_per_second)));
+        }
+        return sInstance;
+    }
+
+    ForecastHttpClient(Uri baseUri, int connectTimeoutMillis, int readTimeoutMillis) {
+        this(baseUri, connectTimeoutMillis, readTimeoutMillis, new HostRateLimiter(0));
+    }
+
+    ForecastHttpClient(Uri baseUri, int connectTimeoutMillis, int readTimeoutMillis,
+                       HostRateLimiter rateLimiter) {
+        mBaseUri = baseUri;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mRateLimiter = rateLimiter;
+    }
+
+    /**
+     * Starts a forecast request URI, callers append the query parameters.
+     */
+    public Uri.Builder buildForecastUri() {
+        return mBaseUri.buildUpon();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Response body bytes received over the network by every exchange so far, before
+     * inflating.
+     */
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    /**
+     * Sends a GET, conditional if a validator is given, and waits for the response headers.
+     * Waits first if the host was sent a request too recently.
+     *
+     * @param etag value for If-None-Match, or null
+     * @param lastModified value for If-Modified-Since, or null
+     */
+    public Exchange get(Uri uri, String etag, String lastModified) throws IOException {
+        try {
+            mRateLimiter.acquire(uri.getHost());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to send " + uri.getHost() +
+                    " a request");
+        }
+        mRequestCount.incrementAndGet();
+        Timings timings = new Timings();
+        long start = System.nanoTime();
+
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(uri.toString())
+                .openConnection();
+        boolean handedOff = false;
+        try {
+            // Lets a cancelled fetch disconnect this from another thread
+            if (!FetchScheduler.onConnectionOpened(urlConnection)) {
+                throw new InterruptedIOException("Fetch cancelled");
+            }
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(mReadTimeoutMillis);
+            // Asking explicitly turns off transparent inflating, which is done below instead
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            if (etag != null) {
+                urlConnection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+
+            urlConnection.connect();
+            long connected = System.nanoTime();
+            timings.connectNanos = connected - start;
+
+            int responseCode = urlConnection.getResponseCode();
+            long firstByte = System.nanoTime();
+            timings.firstByteNanos = firstByte - connected;
+
+            InputStream raw = responseCode >= HttpURLConnection.HTTP_BAD_REQUEST ?
+                    urlConnection.getErrorStream() : urlConnection.getInputStream();
+            InputStream body = new TimedInputStream(raw, timings, firstByte, mBytesReceived);
+            if (responseCode != HttpURLConnection.HTTP_NOT_MODIFIED &&
+                    "gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                body = new GZIPInputStream(body);
+            }
+            body = new ReleasingInputStream(body, urlConnection, responseCode, timings);
+            handedOff = true;
+            return new Exchange(responseCode, body, timings, urlConnection);
+        } finally {
+            if (!handedOff) {
+                urlConnection.disconnect();
+                FetchScheduler.onConnectionReleased(urlConnection);
+            }
+        }
+    }
+
+    /**
+     * Resolves the forecast host and leaves an open connection to it in the pool, so the
+     * first real request doesn't pay for DNS and the TCP handshake.  Blocks, call it off the
+     * main thread.
+     */
+    public void preconnect() {
+        HttpURLConnection urlConnection = null;
+        try {
+            urlConnection = (HttpURLConnection) new URL(mBaseUri.toString()).openConnection();
+            urlConnection.setRequestMethod("HEAD");
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(mReadTimeoutMillis);
+            int responseCode = urlConnection.getResponseCode();
+            InputStream body = responseCode >= HttpURLConnection.HTTP_BAD_REQUEST ?
+                    urlConnection.getErrorStream() : urlConnection.getInputStream();
+            if (body != null) {
+                drain(body);
+                body.close();
+            }
+            urlConnection = null;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Preconnect to " + mBaseUri.getHost() + " failed", e);
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        byte[] buffer = new byte[512];
+        while (in.read(buffer) != -1) {
+            // keep draining
+        }
+    }
+
+    // Drains the body on close so the connection is pooled, and logs the exchange once
+    private static class ReleasingInputStream extends FilterInputStream {
+
+        private final HttpURLConnection mConnection;
+        private final int mResponseCode;
+        private final Timings mTimings;
+        private boolean mClosed;
+
+        ReleasingInputStream(InputStream in, HttpURLConnection connection, int responseCode,
+                             Timings timings) {
+            super(in);
+            mConnection = connection;
+            mResponseCode = responseCode;
+            mTimings = timings;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                drain(in);
+                in.close();
+            } catch (IOException e) {
+                // The connection can't be reused, make sure it goes away
+                mConnection.disconnect();
+            }
+            FetchScheduler.onConnectionReleased(mConnection);
+            if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, mResponseCode + " " + mConnection.getURL().getPath() + ": " +
+                        mTimings);
+            }
+        }
+    }
+
+    // Counts the raw body bytes and notes when the last one arrived
+    private static class TimedInputStream extends FilterInputStream {
+
+        private final Timings mTimings;
+        private final long mStart;
+        private final AtomicLong mTotal;
+
+        TimedInputStream(InputStream in, Timings timings, long start, AtomicLong total) {
+            super(in != null ? in : new ByteArrayInputStream(new byte[0]));
+            mTimings = timings;
+            mStart = start;
+            mTotal = total;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mTimings.bytesOnWire++;
+                mTotal.incrementAndGet();
+            }
+            mTimings.transferNanos = System.nanoTime() - mStart;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mTimings.bytesOnWire += read;
+                mTotal.addAndGet(read);
+            }
+            mTimings.transferNanos = System.nanoTime() - mStart;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.android.sunshine.app;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ *
+ * The response is read straight from the stream it arrives on and every day is handed to a
+ * {@link Handler} as soon as its object has been read, so no more than one day is ever held
+ * in memory. Fields the app doesn't store are skipped without being materialized.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_ID = "id";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    /**
+     * Receives the parsed forecast, one callback per record, in document order.
+     */
+    public interface Handler {
+        void onCity(String cityName, double lat, double lon, long cityId);
+
+        void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                   double windDirection, double high, double low,
+                   String description, int weatherId);
+    }
+
+    // The fields of the day currently being read.  One instance is reused for the whole list.
+    private static class DayFields {
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        double high;
+        double low;
+        String description;
+        int weatherId;
+
+        void reset() {
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            high = 0;
+            low = 0;
+            description = null;
+            weatherId = 0;
+        }
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Parses a forecast response and closes the stream.
+     *
+     * @return the number of days handed to the handler.
+     */
+    public static int parse(InputStream in, Handler handler) throws IOException {
+        try {
+            return parseDocument(in, handler);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses a forecast response, checking that nothing but whitespace follows it, and
+     * leaves the stream open.  A caller that returns without an exception has read a
+     * complete, well-formed document, and is free to keep or cache it before closing.
+     *
+     * @return the number of days handed to the handler.
+     */
+    public static int parseDocument(InputStream in, Handler handler) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            int days = readForecast(reader, handler);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new IOException("Malformed forecast: data after the document");
+            }
+            return days;
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected token types this way
+            throw new IOException("Malformed forecast: " + e.getMessage(), e);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed forecast: " + e.getMessage(), e);
+        }
+    }
+
+    private static int readForecast(JsonReader reader, Handler handler) throws IOException {
+        int days = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY.equals(name)) {
+                readCity(reader, handler);
+            } else if (OWM_LIST.equals(name)) {
+                days = readList(reader, handler);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return days;
+    }
+
+    private static void readCity(JsonReader reader, Handler handler) throws IOException {
+        String cityName = null;
+        long cityId = 0;
+        double lat = 0;
+        double lon = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        handler.onCity(cityName, lat, lon, cityId);
+    }
+
+    private static int readList(JsonReader reader, Handler handler) throws IOException {
+        DayFields day = new DayFields();
+        int dayIndex = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            day.reset();
+            readDay(reader, day);
+            handler.onDay(dayIndex++, day.pressure, day.humidity, day.windSpeed,
+                    day.windDirection, day.high, day.low, day.description, day.weatherId);
+        }
+        reader.endArray();
+        return dayIndex;
+    }
+
+    private static void readDay(JsonReader reader, DayFields day) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // org.json's getInt() truncates fractional values, keep doing the same
+                day.humidity = (int) reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        day.high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(tempName)) {
+                        day.low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                readWeather(reader, day);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // Description is in a child array called "weather", which is 1 element long.
+    // That element also contains a weather code.
+    private static void readWeather(JsonReader reader, DayFields day) throws IOException {
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    day.description = reader.nextString();
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    day.weatherId = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,510 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Disk cache of forecast responses, keyed by the request URI without the API key.
+ *
+ * A cached response is served without a request while its Cache-Control max-age or Expires
+ * hold.  After that the request is sent with If-None-Match / If-Modified-Since, and a 304
+ * streams the cached body back to the caller as if it had just been downloaded.
+ *
+ * A body is only written to the cache once the caller has consumed it and marked it
+ * complete, so a response that breaks off half way or doesn't parse never replaces a good
+ * one.
+ */
+public class ForecastResponseCache {
+
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    // Where a response came from
+    public static final int SOURCE_NETWORK = 0;
+    public static final int SOURCE_CACHE = 1;
+    public static final int SOURCE_REVALIDATED = 2;
+
+    static final String DIRECTORY_NAME = "forecast_responses";
+    static final int DEFAULT_MAX_ENTRIES = 16;
+
+    // Left out of the cache key, it doesn't change the response
+    private static final String APPID_PARAM = "APPID";
+
+    // Bumped whenever the entry header layout changes, older entries are then ignored
+    private static final int ENTRY_VERSION = 1;
+
+    private static ForecastResponseCache sInstance;
+
+    private final File mDirectory;
+    private final int mMaxEntries;
+    private final ForecastHttpClient mClient;
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private final AtomicInteger mRevalidateCount = new AtomicInteger();
+
+    /**
+     * A response body and where it came from.  Closing it hands the connection, if any, back
+     * to the client's pool, and caches the body if the caller called {@link #markComplete()}.
+     */
+    public static class Response implements Closeable {
+        public final InputStream body;
+        public final int source;
+        // Null when the response was served without a request
+        public final ForecastHttpClient.Timings timings;
+        private final ForecastHttpClient.Exchange mExchange;
+
+        Response(InputStream body, int source, ForecastHttpClient.Exchange exchange) {
+            this.body = body;
+            this.source = source;
+            this.timings = exchange != null ? exchange.timings : null;
+            mExchange = exchange;
+        }
+
+        /**
+         * Marks the body as read and understood, so it may be cached when the response is
+         * closed.  A body that is never marked is thrown away.
+         */
+        public void markComplete() {
+            if (body instanceof CachingInputStream) {
+                ((CachingInputStream) body).mComplete = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                body.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error closing response", e);
+            }
+            if (mExchange != null) {
+                mExchange.close();
+            }
+        }
+    }
+
+    // The header stored in front of each cached body
+    private static class Entry {
+        String key;
+        String etag;
+        String lastModified;
+        long expires;
+    }
+
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastResponseCache(
+                    new File(context.getCacheDir(), DIRECTORY_NAME), DEFAULT_MAX_ENTRIES,
+                    ForecastHttpClient.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    ForecastResponseCache(File directory, int maxEntries, ForecastHttpClient client) {
+        mDirectory = directory;
+        mMaxEntries = maxEntries;
+        mClient = client;
+    }
+
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    public int getRevalidateCount() {
+        return mRevalidateCount.get();
+    }
+
+    /**
+     * Opens the response for the given request URI, from the cache if it is still fresh and
+     * otherwise with a conditional request.
+     *
+     * @throws IOException if the request fails or the server answers anything but 200 or,
+     * for a cached response, 304.
+     */
+    public Response open(Uri uri) throws IOException {
+        return open(uri, cacheKey(uri));
+    }
+
+    /**
+     * Same as {@link #open(Uri)}, storing the response under the given key instead of one
+     * made from the URI, for requests that ask for the same forecast in more than one way.
+     */
+    public Response open(Uri uri, String key) throws IOException {
+        File file = fileFor(key);
+        Entry entry = readEntry(file, key);
+
+        if (entry != null && entry.expires > System.currentTimeMillis()) {
+            InputStream cached = openBody(file, key);
+            if (cached != null) {
+                mHitCount.incrementAndGet();
+                return new Response(cached, SOURCE_CACHE, null);
+            }
+        }
+
+        ForecastHttpClient.Exchange exchange = entry != null ?
+                mClient.get(uri, entry.etag, entry.lastModified) :
+                mClient.get(uri, null, null);
+        boolean handedOff = false;
+        try {
+            int responseCode = exchange.responseCode;
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                InputStream cached = openBody(file, key);
+                if (cached != null) {
+                    mRevalidateCount.incrementAndGet();
+                    exchange.close();
+                    handedOff = true;
+                    return new Response(cached, SOURCE_REVALIDATED, null);
+                }
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + responseCode + " for " + key);
+            }
+
+            mMissCount.incrementAndGet();
+            InputStream body = exchange.body;
+            Entry fetched = new Entry();
+            fetched.key = key;
+            fetched.etag = exchange.getHeaderField("ETag");
+            fetched.lastModified = exchange.getHeaderField("Last-Modified");
+            fetched.expires = expiresAt(exchange);
+            if (isCacheable(exchange, fetched)) {
+                body = new CachingInputStream(body, fetched, file);
+            }
+            handedOff = true;
+            return new Response(body, SOURCE_NETWORK, exchange);
+        } finally {
+            if (!handedOff) {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes every cached response.
+     */
+    public void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHitCount() + ", misses=" + getMissCount() +
+                ", revalidated=" + getRevalidateCount();
+    }
+
+    /**
+     * The request URI with its query parameters sorted and the API key removed, so the same
+     * forecast is found whatever order the parameters were added in.
+     */
+    static String cacheKey(Uri uri) {
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : new TreeSet<String>(uri.getQueryParameterNames())) {
+            if (APPID_PARAM.equalsIgnoreCase(name)) {
+                continue;
+            }
+            List<String> values = uri.getQueryParameters(name);
+            for (String value : values) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build().toString();
+    }
+
+    private File fileFor(String key) {
+        // The key is stored in the entry too, so a hash collision only costs a miss
+        return new File(mDirectory, Integer.toHexString(key.hashCode()));
+    }
+
+    private static boolean isCacheable(ForecastHttpClient.Exchange exchange, Entry entry) {
+        String cacheControl = exchange.getHeaderField("Cache-Control");
+        if (cacheControl != null && cacheControl.contains("no-store")) {
+            return false;
+        }
+        // Without a validator or a lifetime the cached body could never be used
+        return entry.etag != null || entry.lastModified != null ||
+                entry.expires > System.currentTimeMillis();
+    }
+
+    private static long expiresAt(ForecastHttpClient.Exchange exchange) {
+        String cacheControl = exchange.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            if (cacheControl.contains("no-cache")) {
+                return 0;
+            }
+            int index = cacheControl.indexOf("max-age=");
+            if (index != -1) {
+                int start = index + "max-age=".length();
+                int end = start;
+                while (end < cacheControl.length() &&
+                        Character.isDigit(cacheControl.charAt(end))) {
+                    end++;
+                }
+                if (end > start) {
+                    try {
+                        return System.currentTimeMillis() +
+                                Long.parseLong(cacheControl.substring(start, end)) * 1000;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        return exchange.getExpiration();
+    }
+
+    private static Entry readEntry(File file, String key) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return readHeader(in, key);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable cache entry " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    // Returns the body of the entry, or null if it is gone or no longer holds this key
+    private static InputStream openBody(File file, String key) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (readHeader(in, key) != null) {
+                InputStream body = in;
+                in = null;
+                return body;
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static Entry readHeader(DataInputStream in, String key) throws IOException {
+        if (in.readInt() != ENTRY_VERSION) {
+            return null;
+        }
+        Entry entry = new Entry();
+        entry.key = in.readUTF();
+        if (!entry.key.equals(key)) {
+            return null;
+        }
+        entry.etag = emptyToNull(in.readUTF());
+        entry.lastModified = emptyToNull(in.readUTF());
+        entry.expires = in.readLong();
+        return entry;
+    }
+
+    private static void writeHeader(DataOutputStream out, Entry entry) throws IOException {
+        out.writeInt(ENTRY_VERSION);
+        out.writeUTF(entry.key);
+        out.writeUTF(entry.etag != null ? entry.etag : "");
+        out.writeUTF(entry.lastModified != null ? entry.lastModified : "");
+        out.writeLong(entry.expires);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    // Keeps the newest mMaxEntries entries
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= mMaxEntries) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long left = lhs.lastModified();
+                long right = rhs.lastModified();
+                return left > right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        for (int i = mMaxEntries; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Copies the body into a temporary file as the caller reads it, and moves it into place
+     * when the caller closes the stream after marking it complete.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final Entry mEntry;
+        private final File mFile;
+        private File mTempFile;
+        private DataOutputStream mOut;
+        private boolean mEof;
+        // Set by Response.markComplete() once the caller parsed the body
+        private volatile boolean mComplete;
+
+        CachingInputStream(InputStream in, Entry entry, File file) {
+            super(in);
+            mEntry = entry;
+            mFile = file;
+            try {
+                if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                    throw new IOException("Could not create " + mDirectory);
+                }
+                mTempFile = File.createTempFile(file.getName(), ".tmp", mDirectory);
+                OutputStream fileOut = new FileOutputStream(mTempFile);
+                mOut = new DataOutputStream(new BufferedOutputStream(fileOut));
+                writeHeader(mOut, entry);
+            } catch (IOException e) {
+                // Still serve the response, it just won't be cached
+                Log.w(LOG_TAG, "Not caching " + entry.key, e);
+                abort();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                mEof = true;
+            } else if (mOut != null) {
+                try {
+                    mOut.write(b);
+                } catch (IOException e) {
+                    abort();
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read == -1) {
+                mEof = true;
+            } else if (mOut != null) {
+                try {
+                    mOut.write(buffer, offset, read);
+                } catch (IOException e) {
+                    abort();
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes still have to reach the cache file
+            byte[] buffer = new byte[(int) Math.min(count, 1024)];
+            long skipped = 0;
+            while (skipped < count) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mComplete) {
+                // The caller gave up on the body or couldn't parse it, don't serve it again
+                try {
+                    super.close();
+                } finally {
+                    abort();
+                }
+                return;
+            }
+            try {
+                if (mOut != null && !mEof) {
+                    // The parser stops at the end of the JSON object, pick up what trails it
+                    byte[] buffer = new byte[256];
+                    while (read(buffer, 0, buffer.length) != -1) {
+                        // keep draining
+                    }
+                }
+            } catch (IOException e) {
+                abort();
+            } finally {
+                super.close();
+                commit();
+            }
+        }
+
+        private void commit() {
+            if (mOut == null) {
+                return;
+            }
+            try {
+                mOut.close();
+                mOut = null;
+                if (!mTempFile.renameTo(mFile)) {
+                    throw new IOException("Could not rename " + mTempFile);
+                }
+                trim();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Not caching " + mEntry.key, e);
+                abort();
+            }
+        }
+
+        private void abort() {
+            closeQuietly(mOut);
+            mOut = null;
+            if (mTempFile != null) {
+                mTempFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.android.sunshine.app;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spaces requests to the same host evenly, so fetching many locations at once doesn't send
+ * the forecast server a burst of requests.
+ */
+public class HostRateLimiter {
+
+    private final long mIntervalNanos;
+
+    // Guarded by this, the earliest time the next request to each host may go out
+    private final Map<String, Long> mNextSlot = new HashMap<String, Long>();
+
+    /**
+     * @param requestsPerSecond the most requests per second to one host, 0 for no limit
+     */
+    public HostRateLimiter(int requestsPerSecond) {
+        mIntervalNanos = requestsPerSecond > 0 ? 1000000000L / requestsPerSecond : 0;
+    }
+
+    /**
+     * Waits until a request to host may be sent, and books that slot.
+     */
+    public void acquire(String host) throws InterruptedException {
+        if (mIntervalNanos == 0) {
+            return;
+        }
+        long slot;
+        synchronized (this) {
+            long now = System.nanoTime();
+            Long next = mNextSlot.get(host);
+            slot = next == null || next < now ? now : next;
+            mNextSlot.put(host, slot + mIntervalNanos);
+        }
+        long waitNanos = slot - System.nanoTime();
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        }
+    }
+}
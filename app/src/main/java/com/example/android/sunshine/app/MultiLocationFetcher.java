@@ -0,0 +1,264 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastBlock;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Fetches the forecasts of many locations at once and stores them together.
+ *
+ * The locations are fetched and parsed as tasks on a {@link FetchScheduler} of their own,
+ * whose workers bound how many run at the same time, and requests to the forecast host are
+ * spaced by the {@link HostRateLimiter} of the HTTP client.  Interrupting the caller, which is what cancelling the
+ * scheduler task it runs in does, cancels the location tasks and so disconnects the reads
+ * they are blocked in.  Once every fetch has finished, the forecasts that arrived are stored
+ * with one METHOD_BULK_INSERT_BLOCKS call, so the provider writes them in a single
+ * transaction and notifies each changed location once.
+ */
+public class MultiLocationFetcher {
+
+    private static final String LOG_TAG = MultiLocationFetcher.class.getSimpleName();
+
+    private static final String[] SAVED_LOCATION_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_FETCHED_AT
+    };
+
+    // These indices are tied to SAVED_LOCATION_COLUMNS
+    static final int COL_SAVED_LOCATION_SETTING = 0;
+    static final int COL_SAVED_FETCHED_AT = 1;
+
+    private static final String[] CITY_ID_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_ID
+    };
+
+    // These indices are tied to CITY_ID_COLUMNS
+    static final int COL_CITY_ID_LOCATION_SETTING = 0;
+    static final int COL_CITY_ID = 1;
+
+    // Shared by every fetcher made from resources, its idle workers time out
+    private static FetchScheduler sScheduler;
+
+    private final Context mContext;
+    private final ForecastFetchCoordinator mCoordinator;
+    private final FetchScheduler mScheduler;
+
+    /**
+     * What one run fetched and stored.
+     */
+    public static class Result {
+        public int locations;
+        public int fetched;
+        public int failed;
+        // The locations counted in failed
+        public final List<String> failedLocations = new ArrayList<String>();
+        public int rowsStored;
+        public long elapsedNanos;
+
+        @Override
+        public String toString() {
+            return fetched + "/" + locations + " locations fetched, " + failed + " failed, " +
+                    rowsStored + " rows stored in " + (elapsedNanos / 1000000) + " ms";
+        }
+    }
+
+    /**
+     * One location's fetch, run on the fetcher's scheduler.  The outcome is read by the
+     * caller waiting in fetchAll, nothing is delivered to the main thread.
+     */
+    private class LocationFetch extends FetchScheduler.Task<Void> {
+        final String mLocation;
+        private final long mCityId;
+        private final int mNumDays;
+        private final CountDownLatch mDone;
+        volatile ForecastBlock mBlock;
+        volatile Exception mError;
+
+        LocationFetch(String location, long cityId, int numDays, CountDownLatch done) {
+            mLocation = location;
+            mCityId = cityId;
+            mNumDays = numDays;
+            mDone = done;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            try {
+                mBlock = mCoordinator.fetch(mLocation, mCityId, mNumDays);
+            } catch (Exception e) {
+                mError = e;
+            } finally {
+                mDone.countDown();
+            }
+            return null;
+        }
+    }
+
+    public static MultiLocationFetcher fromResources(Context context) {
+        return new MultiLocationFetcher(context,
+                ForecastFetchCoordinator.getInstance(context), getScheduler(context));
+    }
+
+    private static synchronized FetchScheduler getScheduler(Context context) {
+        if (sScheduler == null) {
+            sScheduler = new FetchScheduler(
+                    context.getResources().getInteger(R.integer.saved_locations_concurrency));
+        }
+        return sScheduler;
+    }
+
+    MultiLocationFetcher(Context context, ForecastFetchCoordinator coordinator,
+                         FetchScheduler scheduler) {
+        mContext = context;
+        mCoordinator = coordinator;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * The saved locations whose stored forecast the policy no longer considers fresh, or all
+     * of them if force is set.
+     */
+    public static List<String> loadSavedLocations(Context context, RefreshPolicy policy,
+                                                  boolean force) {
+        List<String> locations = new ArrayList<String>();
+        Cursor cursor = context.getContentResolver().query(LocationEntry.CONTENT_URI,
+                SAVED_LOCATION_COLUMNS, null, null, null);
+        if (cursor == null) {
+            return locations;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            while (cursor.moveToNext()) {
+                if (force || policy.evaluate(cursor.getLong(COL_SAVED_FETCHED_AT), now) !=
+                        RefreshPolicy.FRESH) {
+                    locations.add(cursor.getString(COL_SAVED_LOCATION_SETTING));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return locations;
+    }
+
+    /**
+     * Fetches every location and stores the forecasts that arrived.  A location that fails
+     * to fetch is counted and left as it was.  Blocks, call it off the main thread.
+     *
+     * @throws InterruptedIOException if the caller is interrupted, after cancelling the
+     * fetches still queued or running.
+     */
+    public Result fetchAll(List<String> locations, int numDays) throws IOException {
+        Result result = new Result();
+        result.locations = locations.size();
+        if (locations.isEmpty()) {
+            return result;
+        }
+        long start = System.nanoTime();
+        Map<String, Long> cityIds = loadCityIds();
+
+        CountDownLatch done = new CountDownLatch(locations.size());
+        List<LocationFetch> fetches = new ArrayList<LocationFetch>(locations.size());
+        for (String location : locations) {
+            Long cityId = cityIds.get(location);
+            fetches.add(mScheduler.submit(new LocationFetch(location,
+                    cityId != null ? cityId : 0, numDays, done)));
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            // A cancelled task is dropped from the queue, or has its connection disconnected
+            for (LocationFetch fetch : fetches) {
+                fetch.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted fetching saved locations");
+        }
+
+        List<ForecastBlock> blocks = new ArrayList<ForecastBlock>(locations.size());
+        for (LocationFetch fetch : fetches) {
+            if (fetch.mBlock != null) {
+                blocks.add(fetch.mBlock);
+                result.fetched++;
+            } else {
+                result.failed++;
+                result.failedLocations.add(fetch.mLocation);
+                Log.w(LOG_TAG, "Fetching " + fetch.mLocation + " failed", fetch.mError);
+            }
+        }
+
+        result.rowsStored = store(blocks);
+        result.elapsedNanos = System.nanoTime() - start;
+        Log.d(LOG_TAG, result.toString());
+        return result;
+    }
+
+    // The city ids the server gave saved locations before
+    private Map<String, Long> loadCityIds() {
+        Map<String, Long> cityIds = new HashMap<String, Long>();
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                CITY_ID_COLUMNS, LocationEntry.COLUMN_CITY_ID + " > 0", null, null);
+        if (cursor == null) {
+            return cityIds;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                cityIds.put(cursor.getString(COL_CITY_ID_LOCATION_SETTING),
+                        cursor.getLong(COL_CITY_ID));
+            }
+        } finally {
+            cursor.close();
+        }
+        return cityIds;
+    }
+
+    // Writes every block, and stamps each location's fetched_at and city id, in one
+    // transaction
+    private int store(List<ForecastBlock> blocks) throws IOException {
+        ArrayList<Bundle> requests = new ArrayList<Bundle>(blocks.size());
+        for (ForecastBlock block : blocks) {
+            long locationId = resolveLocation(block);
+            if (locationId == -1) {
+                continue;
+            }
+            Bundle request = block.toBundle();
+            request.putLong(WeatherContract.EXTRA_LOCATION_ID, locationId);
+            requests.add(request);
+        }
+        if (requests.isEmpty()) {
+            return 0;
+        }
+        Bundle extras = new Bundle();
+        extras.putParcelableArrayList(WeatherContract.EXTRA_BLOCKS, requests);
+        extras.putLong(WeatherContract.EXTRA_FETCHED_AT, System.currentTimeMillis());
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BLOCKS, null, extras);
+        if (result == null) {
+            throw new IOException("Storing forecasts failed");
+        }
+        return result.getInt(WeatherContract.RESULT_ROWS);
+    }
+
+    private long resolveLocation(ForecastBlock block) {
+        Bundle extras = new Bundle();
+        extras.putString(WeatherContract.EXTRA_CITY_NAME, block.cityName);
+        extras.putDouble(WeatherContract.EXTRA_COORD_LAT, block.coordLat);
+        extras.putDouble(WeatherContract.EXTRA_COORD_LONG, block.coordLong);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_RESOLVE_LOCATION, block.locationSetting, extras);
+        return result == null ? -1 : result.getLong(WeatherContract.RESULT_LOCATION_ID, -1);
+    }
+}
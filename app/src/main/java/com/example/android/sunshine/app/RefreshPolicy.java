@@ -0,0 +1,50 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+/**
+ * Decides whether a stored forecast can be shown as is or needs fetching again.
+ */
+public class RefreshPolicy {
+
+    // Stored and younger than the TTL, no request needed
+    public static final int FRESH = 0;
+    // Stored but older than the TTL, show it and fetch a newer one
+    public static final int STALE = 1;
+    // Nothing stored, the forecast has to be fetched before anything can be shown
+    public static final int MISSING = 2;
+
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    private final long mTtlMillis;
+
+    public static RefreshPolicy fromResources(Context context) {
+        return new RefreshPolicy(context.getResources()
+                .getInteger(R.integer.forecast_ttl_minutes) * MINUTE_IN_MILLIS);
+    }
+
+    public RefreshPolicy(long ttlMillis) {
+        mTtlMillis = ttlMillis;
+    }
+
+    public long getTtlMillis() {
+        return mTtlMillis;
+    }
+
+    /**
+     * @param fetchedAt when the stored forecast was fetched, 0 if there is none
+     * @param now the current time
+     * @return FRESH, STALE or MISSING
+     */
+    public int evaluate(long fetchedAt, long now) {
+        if (fetchedAt <= 0) {
+            return MISSING;
+        }
+        // A clock that moved backwards makes the age meaningless, refetch to be safe
+        long age = now - fetchedAt;
+        if (age < 0 || age >= mTtlMillis) {
+            return STALE;
+        }
+        return FRESH;
+    }
+}
@@ -1,10 +1,12 @@
 package com.example.android.sunshine.app;
 
+import android.content.Intent;
 import android.os.Bundle;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
+import android.support.v4.content.LocalBroadcastManager;
 
 /**
  * Created by hanssi on 9/24/16.
@@ -16,6 +18,15 @@ import android.preference.PreferenceManager;
 public class SettingsActivity extends PreferenceActivity
         implements Preference.OnPreferenceChangeListener {
 
+    /**
+     * Sent in-process when the user picks other temperature units, with the new units in
+     * {@link #EXTRA_IS_METRIC}.  The stored forecast is in Celsius, so the list only has to
+     * format the days it already holds again.
+     */
+    public static final String ACTION_UNITS_CHANGED =
+            "com.example.android.sunshine.app.ACTION_UNITS_CHANGED";
+    public static final String EXTRA_IS_METRIC = "is_metric";
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -24,6 +35,8 @@ public class SettingsActivity extends PreferenceActivity
 
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
+        findPreference(getString(R.string.pref_background_sync_key))
+                .setOnPreferenceChangeListener(this);
     }
 
     /**
@@ -42,8 +55,23 @@ public class SettingsActivity extends PreferenceActivity
 
     @Override
     public boolean onPreferenceChange(Preference preference, Object value) {
+        if (preference.getKey().equals(getString(R.string.pref_background_sync_key))) {
+            // Its summary is fixed, only the alarm follows the value
+            WeatherSyncService.setEnabled(this, (Boolean) value);
+            return true;
+        }
+
         String stringValue = value.toString();
 
+        // This runs before the new value is saved, so the stored one is still the old one
+        if (preference.getKey().equals(getString(R.string.pref_units_key))) {
+            boolean isMetric = stringValue.equals(getString(R.string.pref_units_metric));
+            if (isMetric != Utility.isMetric(this)) {
+                LocalBroadcastManager.getInstance(this).sendBroadcast(
+                        new Intent(ACTION_UNITS_CHANGED).putExtra(EXTRA_IS_METRIC, isMetric));
+            }
+        }
+
         if(preference instanceof ListPreference) {
             // For list preferences, loop up the current display value in the
             // preference's 'entries' list
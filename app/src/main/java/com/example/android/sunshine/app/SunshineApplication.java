@@ -0,0 +1,35 @@
+package com.example.android.sunshine.app;
+
+import android.app.Application;
+
+/**
+ * Sets up the process wide pieces the app shares before any screen asks for them.
+ */
+public class SunshineApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Read the settings before the forecast list needs them
+        WeatherSettings.preload(this);
+
+        // Pick up the fetches an earlier process queued or was in the middle of
+        FetchJobWorker.resume(this);
+
+        // Keep the stored forecasts fresh while the app is not open
+        WeatherSyncService.scheduleIfNeeded(this);
+
+        // Warm up DNS and a pooled connection to the forecast server while the first screen
+        // is still being laid out
+        final ForecastHttpClient client = ForecastHttpClient.getInstance(this);
+        Thread preconnect = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                client.preconnect();
+            }
+        }, "ForecastPreconnect");
+        preconnect.setPriority(Thread.MIN_PRIORITY);
+        preconnect.start();
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.android.sunshine.app;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.content.WakefulBroadcastReceiver;
+
+/**
+ * Starts {@link WeatherSyncService} when its alarm goes off, holding a wake lock until the
+ * service is done, and sets the alarm again after a reboot, which clears every alarm.
+ */
+public class SyncReceiver extends WakefulBroadcastReceiver {
+
+    static final String ACTION_SYNC = "com.example.android.sunshine.app.ACTION_SYNC";
+
+    static PendingIntent createAlarmIntent(Context context, int flags) {
+        Intent intent = new Intent(context, SyncReceiver.class).setAction(ACTION_SYNC);
+        return PendingIntent.getBroadcast(context, 0, intent, flags);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (ACTION_SYNC.equals(intent.getAction())) {
+            startWakefulService(context, new Intent(context, WeatherSyncService.class));
+        } else if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            WeatherSyncService.schedule(context);
+        }
+    }
+}
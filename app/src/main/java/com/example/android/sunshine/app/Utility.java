@@ -0,0 +1,17 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+/**
+ * Preference lookups shared by the forecast list and the fetch task.
+ */
+public class Utility {
+
+    public static String getPreferredLocation(Context context) {
+        return WeatherSettings.get(context).location;
+    }
+
+    public static boolean isMetric(Context context) {
+        return WeatherSettings.get(context).isMetric;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The user's settings as one immutable snapshot.
+ *
+ * Formatting a row used to read the preferences and look up three resource strings every
+ * time.  The snapshot is read once, off the main thread when the app starts, and replaced as
+ * a whole whenever a preference changes, so hot paths only read its fields.
+ */
+public class WeatherSettings {
+
+    public final String location;
+    public final boolean isMetric;
+    public final boolean refreshSavedLocations;
+    public final boolean backgroundSync;
+
+    private static volatile WeatherSettings sCurrent;
+
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    WeatherSettings(String location, boolean isMetric, boolean refreshSavedLocations,
+                    boolean backgroundSync) {
+        this.location = location;
+        this.isMetric = isMetric;
+        this.refreshSavedLocations = refreshSavedLocations;
+        this.backgroundSync = backgroundSync;
+    }
+
+    /**
+     * Starts reading the settings on a background thread.  Called when the app starts, so
+     * the first screen normally finds them loaded.
+     */
+    static void preload(final Context context) {
+        final Context appContext = context.getApplicationContext();
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                load(appContext);
+            }
+        }, "WeatherSettingsLoader");
+        loader.start();
+    }
+
+    /**
+     * The current settings.  Reads them now if they have not been loaded yet.
+     */
+    public static WeatherSettings get(Context context) {
+        WeatherSettings settings = sCurrent;
+        return settings != null ? settings : load(context.getApplicationContext());
+    }
+
+    private static synchronized WeatherSettings load(final Context context) {
+        if (sCurrent == null) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    sCurrent = read(context, prefs);
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+            sCurrent = read(context, prefs);
+        }
+        return sCurrent;
+    }
+
+    private static WeatherSettings read(Context context, SharedPreferences prefs) {
+        String metric = context.getString(R.string.pref_units_metric);
+        return new WeatherSettings(
+                prefs.getString(context.getString(R.string.pref_location_key),
+                        context.getString(R.string.pref_location_default)),
+                prefs.getString(context.getString(R.string.pref_units_key), metric)
+                        .equals(metric),
+                prefs.getBoolean(context.getString(R.string.pref_saved_locations_key), false),
+                prefs.getBoolean(context.getString(R.string.pref_background_sync_key), true));
+    }
+
+    @Override
+    public String toString() {
+        return "location " + location + (isMetric ? ", metric" : ", imperial") +
+                (refreshSavedLocations ? ", refreshing saved locations" : "") +
+                (backgroundSync ? "" : ", no background sync");
+    }
+}
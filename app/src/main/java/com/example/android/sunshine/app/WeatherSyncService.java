@@ -0,0 +1,202 @@
+package com.example.android.sunshine.app;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Refreshes the preferred location, and every saved one if the user asked for that, in the
+ * background, so opening the app normally finds a fresh forecast on disk instead of waiting
+ * for the network.  The background sync setting turns it off altogether.
+ *
+ * Runs are one-shot wakeup alarms, each scheduled by the run before it with a random jitter
+ * around the configured period, so devices that synced at the same moment drift apart
+ * instead of hitting the forecast server together.  The alarm wakes the device, and
+ * {@link SyncReceiver} holds a wake lock until the run is over.  A run without a usable
+ * network is skipped and tried again next period.  The forecasts go straight into the
+ * provider, and the locations that failed are queued with the {@link FetchJobWorker} to be
+ * retried.  Every run records its duration and the bytes it received in
+ * {@link #STATS_PREFS}.
+ */
+public class WeatherSyncService extends IntentService {
+
+    private static final String LOG_TAG = WeatherSyncService.class.getSimpleName();
+
+    public static final String STATS_PREFS = "weather_sync_stats";
+    public static final String STAT_LAST_RUN_AT = "last_run_at";
+    public static final String STAT_LAST_DURATION_MS = "last_duration_ms";
+    public static final String STAT_LAST_BYTES = "last_bytes";
+    public static final String STAT_LAST_LOCATIONS = "last_locations";
+    public static final String STAT_LAST_FAILED = "last_failed";
+    public static final String STAT_RUNS = "runs";
+    public static final String STAT_SKIPPED = "skipped";
+
+    private static final int NUM_DAYS = 14;
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    private static final Random sRandom = new Random();
+
+    public WeatherSyncService() {
+        super("WeatherSyncService");
+    }
+
+    /**
+     * Sets the alarm for the next run, replacing any that is already set, or cancels it if
+     * the background sync is turned off.
+     */
+    public static void schedule(Context context) {
+        setEnabled(context, WeatherSettings.get(context).backgroundSync);
+    }
+
+    /**
+     * Sets or cancels the alarm, for a change of the background sync setting that may not
+     * be saved yet.
+     */
+    static void setEnabled(Context context, boolean enabled) {
+        if (!enabled) {
+            PendingIntent alarm = SyncReceiver.createAlarmIntent(context,
+                    PendingIntent.FLAG_NO_CREATE);
+            if (alarm != null) {
+                AlarmManager alarmManager =
+                        (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+                alarmManager.cancel(alarm);
+                alarm.cancel();
+                Log.d(LOG_TAG, "Background sync turned off");
+            }
+            return;
+        }
+        long delay = nextDelayMillis(
+                context.getResources().getInteger(R.integer.sync_interval_minutes) *
+                        MINUTE_IN_MILLIS,
+                context.getResources().getInteger(R.integer.sync_jitter_minutes) *
+                        MINUTE_IN_MILLIS,
+                sRandom);
+        AlarmManager alarmManager =
+                (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                SystemClock.elapsedRealtime() + delay,
+                SyncReceiver.createAlarmIntent(context, PendingIntent.FLAG_UPDATE_CURRENT));
+        Log.d(LOG_TAG, "Next sync in " + (delay / MINUTE_IN_MILLIS) + " min");
+    }
+
+    /**
+     * Sets the alarm for the next run unless one is set already, and cancels one left over
+     * if the background sync is turned off.
+     */
+    public static void scheduleIfNeeded(Context context) {
+        if (!WeatherSettings.get(context).backgroundSync ||
+                SyncReceiver.createAlarmIntent(context, PendingIntent.FLAG_NO_CREATE) == null) {
+            schedule(context);
+        }
+    }
+
+    /**
+     * The period plus a uniformly random jitter in [-jitter, jitter], never below a minute.
+     */
+    static long nextDelayMillis(long intervalMillis, long jitterMillis, Random random) {
+        long jitter = jitterMillis > 0 ?
+                (long) ((random.nextDouble() * 2 - 1) * jitterMillis) : 0;
+        return Math.max(MINUTE_IN_MILLIS, intervalMillis + jitter);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        try {
+            sync();
+        } finally {
+            schedule(this);
+            SyncReceiver.completeWakefulIntent(intent);
+        }
+    }
+
+    private void sync() {
+        WeatherSettings settings = WeatherSettings.get(this);
+        if (!settings.backgroundSync) {
+            // An alarm set before the sync was turned off
+            return;
+        }
+        SharedPreferences stats = getSharedPreferences(STATS_PREFS, MODE_PRIVATE);
+        if (!hasUsableNetwork(this)) {
+            Log.d(LOG_TAG, "No usable network, skipping this sync");
+            stats.edit().putInt(STAT_SKIPPED, stats.getInt(STAT_SKIPPED, 0) + 1).apply();
+            return;
+        }
+
+        // Bytes are counted process wide, so a fetch the app runs meanwhile counts too
+        ForecastHttpClient client = ForecastHttpClient.getInstance(this);
+        long bytesBefore = client.getBytesReceived();
+        long start = SystemClock.elapsedRealtime();
+
+        // The locations whose stored forecast is due, only the preferred one unless saved
+        // locations are refreshed too, and the preferred one if it has never been stored
+        RefreshPolicy policy = RefreshPolicy.fromResources(this);
+        List<String> due = MultiLocationFetcher.loadSavedLocations(this, policy, false);
+        String preferred = settings.location;
+        List<String> locations;
+        if (settings.refreshSavedLocations) {
+            locations = due;
+        } else {
+            locations = new ArrayList<String>(1);
+            if (due.contains(preferred)) {
+                locations.add(preferred);
+            }
+        }
+        if (!locations.contains(preferred) &&
+                !MultiLocationFetcher.loadSavedLocations(this, policy, true).contains(preferred)) {
+            locations.add(preferred);
+        }
+        MultiLocationFetcher.Result result = null;
+        try {
+            result = MultiLocationFetcher.fromResources(this).fetchAll(locations, NUM_DAYS);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Sync failed", e);
+        }
+
+        // The queued fetches that are due, then this run's failures, to be retried on their
+        // own until they are stored.  If the run failed as a whole, that is every location.
+        FetchJobWorker worker = new FetchJobWorker(this);
+        int retried = worker.runDueJobs(null);
+        List<String> failed = result != null ? result.failedLocations : locations;
+        for (String location : failed) {
+            worker.enqueue(location, NUM_DAYS, 1);
+        }
+        Log.d(LOG_TAG, "Ran " + retried + " queued fetches");
+
+        recordRun(stats, System.currentTimeMillis(), SystemClock.elapsedRealtime() - start,
+                client.getBytesReceived() - bytesBefore, locations.size(),
+                result != null ? result.failed : locations.size());
+        Log.d(LOG_TAG, "Synced " + result);
+    }
+
+    static void recordRun(SharedPreferences stats, long runAt, long durationMillis, long bytes,
+                          int locations, int failed) {
+        stats.edit()
+                .putLong(STAT_LAST_RUN_AT, runAt)
+                .putLong(STAT_LAST_DURATION_MS, durationMillis)
+                .putLong(STAT_LAST_BYTES, bytes)
+                .putInt(STAT_LAST_LOCATIONS, locations)
+                .putInt(STAT_LAST_FAILED, failed)
+                .putInt(STAT_RUNS, stats.getInt(STAT_RUNS, 0) + 1)
+                .apply();
+    }
+
+    // Connected, and not roaming, where every byte may be charged
+    static boolean hasUsableNetwork(Context context) {
+        ConnectivityManager connectivity =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = connectivity.getActiveNetworkInfo();
+        return network != null && network.isConnected() && !network.isRoaming();
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the URIs a provider changes and notifies each of them once.
+ *
+ * Changes made inside a batch are sent when the outermost batch ends.  Changes made outside a
+ * batch are held for a short window, so a run of single row writes still ends up as one
+ * notification per URI.  A URI is left out when one of its ancestors is notified as well,
+ * since notifying the ancestor already reaches every observer below it.
+ */
+class ChangeNotificationBatcher {
+
+    private static final String LOG_TAG = ChangeNotificationBatcher.class.getSimpleName();
+
+    static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    private final ContentResolver mResolver;
+    private final long mWindowMillis;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // Guarded by this
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+    private int mBatchDepth;
+    private boolean mFlushScheduled;
+    private int mChangeCount;
+    private int mNotifyCount;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ChangeNotificationBatcher.this) {
+                mFlushScheduled = false;
+                if (mBatchDepth > 0) {
+                    // The batch that was opened since sends these when it ends
+                    return;
+                }
+            }
+            flush();
+        }
+    };
+
+    ChangeNotificationBatcher(ContentResolver resolver, long windowMillis) {
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        mThread = new HandlerThread("ChangeNotifications", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Records a change to uri, to be notified when the current batch or window ends.
+     */
+    synchronized void notifyChange(Uri uri) {
+        mChangeCount++;
+        mPending.add(uri);
+        if (mBatchDepth == 0 && !mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlush, mWindowMillis);
+        }
+    }
+
+    /**
+     * Holds every change until the matching {@link #endBatch()}.  Batches nest.
+     */
+    synchronized void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch, notifying everything changed in it once the outermost batch ends.
+     */
+    void endBatch() {
+        synchronized (this) {
+            if (mBatchDepth == 0) {
+                throw new IllegalStateException("endBatch without beginBatch");
+            }
+            if (--mBatchDepth > 0) {
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Notifies every pending URI now.
+     */
+    void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            uris = withoutDescendants(mPending);
+            mPending.clear();
+            mNotifyCount += uris.size();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+        // The tag is too long for Log.isLoggable() before API 24
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Notified " + uris);
+        }
+    }
+
+    /**
+     * Number of changes recorded.
+     */
+    synchronized int getChangeCount() {
+        return mChangeCount;
+    }
+
+    /**
+     * Number of notifications actually sent.
+     */
+    synchronized int getNotifyCount() {
+        return mNotifyCount;
+    }
+
+    /**
+     * Sends whatever is pending and stops the notification thread.
+     */
+    void close() {
+        mHandler.removeCallbacks(mFlush);
+        flush();
+        mThread.quit();
+    }
+
+    // The URIs in order, minus those an ancestor in the same set already covers
+    static List<Uri> withoutDescendants(Set<Uri> uris) {
+        List<Uri> result = new ArrayList<Uri>(uris.size());
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (Uri other : uris) {
+                if (isAncestor(other, uri)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                result.add(uri);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        if (!ancestor.getScheme().equals(uri.getScheme()) ||
+                !ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorPath = ancestor.getPathSegments();
+        List<String> path = uri.getPathSegments();
+        return ancestorPath.size() < path.size() &&
+                ancestorPath.equals(path.subList(0, ancestorPath.size()));
+    }
+}
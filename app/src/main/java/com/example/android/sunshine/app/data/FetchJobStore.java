@@ -0,0 +1,435 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.FetchJobEntry;
+
+/**
+ * The durable queue of forecast fetches, kept in the fetch_job table.
+ *
+ * There is at most one job per location setting and number of days, so queueing a fetch that
+ * is already queued or running returns the job that is there.  A worker claims a job by
+ * marking it running in the same transaction that found it, so no two workers ever hold the
+ * same job, and finishing a job needs the time of the claim back, so a worker whose claim was
+ * taken over can't finish it for the new one.
+ *
+ * A failed job waits BASE_BACKOFF_MILLIS, doubled with every further failure up to
+ * MAX_BACKOFF_MILLIS, and is given up on once it failed MAX_ATTEMPTS times.  A job still marked
+ * running from before this process started, or claimed more than LEASE_MILLIS ago, was lost
+ * with whatever ran it; it counts as a failure and can be claimed again right away.
+ *
+ * Times are passed in rather than read from the clock, so the tests can move them.  Each
+ * method runs in a transaction of its own; callers serialize access.
+ */
+class FetchJobStore {
+
+    static final long BASE_BACKOFF_MILLIS = 30 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+    static final int MAX_ATTEMPTS = 8;
+    // Far longer than a fetch within the connect and read timeouts ever takes
+    static final long LEASE_MILLIS = 5 * 60 * 1000;
+
+    // Pending and due, or running but lost: ?1 the due time, ?2 the process start,
+    // ?3 the oldest claim still held
+    private static final String CLAIMABLE =
+            "((" + FetchJobEntry.COLUMN_STATE + " = " + FetchJobEntry.STATE_PENDING + " AND " +
+                    FetchJobEntry.COLUMN_NEXT_RUN_AT + " <= ?1) OR (" +
+                    FetchJobEntry.COLUMN_STATE + " = " + FetchJobEntry.STATE_RUNNING + " AND (" +
+                    FetchJobEntry.COLUMN_CLAIMED_AT + " < ?2 OR " +
+                    FetchJobEntry.COLUMN_CLAIMED_AT + " <= ?3)))";
+
+    private static final String SQL_CLAIMABLE = "SELECT " + FetchJobEntry._ID + ", " +
+            FetchJobEntry.COLUMN_LOCATION_SETTING + ", " +
+            FetchJobEntry.COLUMN_NUM_DAYS + ", " +
+            FetchJobEntry.COLUMN_STATE + ", " +
+            FetchJobEntry.COLUMN_ATTEMPTS + ", " +
+            FetchJobEntry.COLUMN_CLAIMED_AT +
+            " FROM " + FetchJobEntry.TABLE_NAME + " WHERE " + CLAIMABLE;
+
+    private static final String SQL_CLAIMABLE_FIRST = SQL_CLAIMABLE +
+            " ORDER BY " + FetchJobEntry.COLUMN_NEXT_RUN_AT + ", " + FetchJobEntry._ID +
+            " LIMIT 1";
+
+    // ?4 the location setting, ?5 the number of days
+    private static final String SQL_CLAIMABLE_LOCATION = SQL_CLAIMABLE + " AND " +
+            FetchJobEntry.COLUMN_LOCATION_SETTING + " = ?4 AND " +
+            FetchJobEntry.COLUMN_NUM_DAYS + " = ?5";
+
+    // These indices are tied to SQL_CLAIMABLE
+    private static final int COL_ID = 0;
+    private static final int COL_LOCATION_SETTING = 1;
+    private static final int COL_NUM_DAYS = 2;
+    private static final int COL_STATE = 3;
+    private static final int COL_ATTEMPTS = 4;
+    private static final int COL_CLAIMED_AT = 5;
+
+    // ?1 now
+    private static final String SQL_STATS = "SELECT COUNT(*), " +
+            "COALESCE(SUM(" + FetchJobEntry.COLUMN_STATE + " = " +
+            FetchJobEntry.STATE_PENDING + "), 0), " +
+            "COALESCE(SUM(" + FetchJobEntry.COLUMN_STATE + " = " +
+            FetchJobEntry.STATE_PENDING + " AND " + FetchJobEntry.COLUMN_NEXT_RUN_AT +
+            " <= ?1), 0), " +
+            "COALESCE(SUM(" + FetchJobEntry.COLUMN_STATE + " = " +
+            FetchJobEntry.STATE_RUNNING + "), 0), " +
+            "COALESCE(SUM(" + FetchJobEntry.COLUMN_STATE + " = " +
+            FetchJobEntry.STATE_PENDING + " AND " + FetchJobEntry.COLUMN_ATTEMPTS + " > 0), 0), " +
+            "COALESCE(SUM(" + FetchJobEntry.COLUMN_STATE + " = " +
+            FetchJobEntry.STATE_FAILED + "), 0), " +
+            "COALESCE(MIN(CASE WHEN " + FetchJobEntry.COLUMN_STATE + " != " +
+            FetchJobEntry.STATE_FAILED + " THEN " + FetchJobEntry.COLUMN_CREATED_AT +
+            " END), 0), " +
+            "COALESCE(MIN(CASE WHEN " + FetchJobEntry.COLUMN_STATE + " = " +
+            FetchJobEntry.STATE_PENDING + " THEN " + FetchJobEntry.COLUMN_NEXT_RUN_AT +
+            " END), 0)" +
+            " FROM " + FetchJobEntry.TABLE_NAME;
+
+    private static final String[] STATS_COLUMNS = {
+            FetchJobEntry.STATS_QUEUED,
+            FetchJobEntry.STATS_PENDING,
+            FetchJobEntry.STATS_DUE,
+            FetchJobEntry.STATS_RUNNING,
+            FetchJobEntry.STATS_RETRYING,
+            FetchJobEntry.STATS_FAILED,
+            FetchJobEntry.STATS_OLDEST_CREATED_AT,
+            FetchJobEntry.STATS_NEXT_RUN_AT,
+            // The counters, in the order of counters()
+            FetchJobEntry.STATS_ENQUEUED,
+            FetchJobEntry.STATS_DEDUPED,
+            FetchJobEntry.STATS_CLAIMED,
+            FetchJobEntry.STATS_COMPLETED,
+            FetchJobEntry.STATS_RETRIED,
+            FetchJobEntry.STATS_GAVE_UP,
+            FetchJobEntry.STATS_RECOVERED
+    };
+
+    // Columns of SQL_STATS, the rest of STATS_COLUMNS are the counters
+    private static final int STATS_QUERY_COLUMNS = 8;
+
+    /**
+     * A job as a worker claimed it.
+     */
+    static class Job {
+        final long id;
+        final String locationSetting;
+        final int numDays;
+        // Failures before this claim
+        final int attempts;
+        final long claimedAt;
+
+        Job(long id, String locationSetting, int numDays, int attempts, long claimedAt) {
+            this.id = id;
+            this.locationSetting = locationSetting;
+            this.numDays = numDays;
+            this.attempts = attempts;
+            this.claimedAt = claimedAt;
+        }
+
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putLong(WeatherContract.RESULT_JOB_ID, id);
+            bundle.putString(WeatherContract.RESULT_JOB_LOCATION_SETTING, locationSetting);
+            bundle.putInt(WeatherContract.RESULT_JOB_NUM_DAYS, numDays);
+            bundle.putInt(WeatherContract.RESULT_JOB_ATTEMPTS, attempts);
+            bundle.putLong(WeatherContract.RESULT_CLAIMED_AT, claimedAt);
+            return bundle;
+        }
+
+        @Override
+        public String toString() {
+            return "job " + id + " (" + locationSetting + ", " + numDays + " days, " +
+                    attempts + " failures)";
+        }
+    }
+
+    private final SQLiteDatabase mDb;
+    private final long mStartedAt;
+
+    private int mEnqueued;
+    private int mDeduped;
+    private int mClaimed;
+    private int mCompleted;
+    private int mRetried;
+    private int mGaveUp;
+    private int mRecovered;
+
+    /**
+     * @param startedAt when this process started.  Jobs claimed before then are lost.
+     */
+    FetchJobStore(SQLiteDatabase db, long startedAt) {
+        mDb = db;
+        mStartedAt = startedAt;
+    }
+
+    /**
+     * How long a job waits after its failures-th failure in a row.
+     */
+    static long backoffMillis(int failures) {
+        if (failures <= 0) {
+            return 0;
+        }
+        // Past 2^20 times the base the cap applies anyway, and the shift can't overflow
+        return Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(failures - 1, 20));
+    }
+
+    /**
+     * Queues a fetch unless the same one is queued or running already.  A job that was given
+     * up on is queued afresh.
+     *
+     * @param failedAttempts failures the fetch already had elsewhere, the job waits as if
+     * they had been its own.
+     * @return the RESULT_JOB_ID and RESULT_DEDUPED of METHOD_ENQUEUE_FETCH_JOB.
+     */
+    Bundle enqueue(String locationSetting, int numDays, int failedAttempts, long now) {
+        long id;
+        boolean deduped;
+        mDb.beginTransactionNonExclusive();
+        try {
+            Cursor cursor = mDb.query(FetchJobEntry.TABLE_NAME,
+                    new String[]{FetchJobEntry._ID, FetchJobEntry.COLUMN_STATE},
+                    FetchJobEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                            FetchJobEntry.COLUMN_NUM_DAYS + " = ?",
+                    new String[]{locationSetting, Integer.toString(numDays)},
+                    null, null, null);
+            int state = -1;
+            id = -1;
+            try {
+                if (cursor.moveToFirst()) {
+                    id = cursor.getLong(0);
+                    state = cursor.getInt(1);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(FetchJobEntry.COLUMN_STATE, FetchJobEntry.STATE_PENDING);
+            values.put(FetchJobEntry.COLUMN_ATTEMPTS, failedAttempts);
+            values.put(FetchJobEntry.COLUMN_NEXT_RUN_AT, now + backoffMillis(failedAttempts));
+            values.put(FetchJobEntry.COLUMN_CLAIMED_AT, 0);
+            values.put(FetchJobEntry.COLUMN_CREATED_AT, now);
+            values.putNull(FetchJobEntry.COLUMN_LAST_ERROR);
+            if (id == -1) {
+                values.put(FetchJobEntry.COLUMN_LOCATION_SETTING, locationSetting);
+                values.put(FetchJobEntry.COLUMN_NUM_DAYS, numDays);
+                id = mDb.insertOrThrow(FetchJobEntry.TABLE_NAME, null, values);
+                deduped = false;
+            } else if (state == FetchJobEntry.STATE_FAILED) {
+                mDb.update(FetchJobEntry.TABLE_NAME, values, FetchJobEntry._ID + " = ?",
+                        new String[]{Long.toString(id)});
+                deduped = false;
+            } else {
+                deduped = true;
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        if (deduped) {
+            mDeduped++;
+        } else {
+            mEnqueued++;
+        }
+        Bundle result = new Bundle();
+        result.putLong(WeatherContract.RESULT_JOB_ID, id);
+        result.putBoolean(WeatherContract.RESULT_DEDUPED, deduped);
+        return result;
+    }
+
+    /**
+     * Claims the job that is due first, or only the job of the location setting and number
+     * of days if locationSetting is set.
+     *
+     * @param runNow claim the location's job even while it waits to be retried.
+     * @return the job, or null if none can be claimed.
+     */
+    Job claim(String locationSetting, int numDays, boolean runNow, long now) {
+        String[] args;
+        String sql;
+        String dueBefore = Long.toString(runNow ? Long.MAX_VALUE : now);
+        String startedAt = Long.toString(mStartedAt);
+        String leasedSince = Long.toString(now - LEASE_MILLIS);
+        if (locationSetting == null) {
+            sql = SQL_CLAIMABLE_FIRST;
+            args = new String[]{dueBefore, startedAt, leasedSince};
+        } else {
+            sql = SQL_CLAIMABLE_LOCATION;
+            args = new String[]{dueBefore, startedAt, leasedSince, locationSetting,
+                    Integer.toString(numDays)};
+        }
+
+        mDb.beginTransactionNonExclusive();
+        try {
+            Job job = null;
+            // A lost job that has now failed too often is given up on, and the next one tried
+            while (job == null) {
+                Cursor cursor = mDb.rawQuery(sql, args);
+                try {
+                    if (!cursor.moveToFirst()) {
+                        break;
+                    }
+                    job = claim(cursor, now);
+                } finally {
+                    cursor.close();
+                }
+            }
+            mDb.setTransactionSuccessful();
+            return job;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    // Claims the job the cursor is on, or gives it up and returns null
+    private Job claim(Cursor cursor, long now) {
+        long id = cursor.getLong(COL_ID);
+        int attempts = cursor.getInt(COL_ATTEMPTS);
+        long previousClaim = cursor.getLong(COL_CLAIMED_AT);
+        ContentValues values = new ContentValues();
+        if (cursor.getInt(COL_STATE) == FetchJobEntry.STATE_RUNNING) {
+            attempts++;
+            mRecovered++;
+            values.put(FetchJobEntry.COLUMN_ATTEMPTS, attempts);
+            values.put(FetchJobEntry.COLUMN_LAST_ERROR, "Lost while running");
+            if (attempts >= MAX_ATTEMPTS) {
+                values.put(FetchJobEntry.COLUMN_STATE, FetchJobEntry.STATE_FAILED);
+                update(id, values);
+                mGaveUp++;
+                return null;
+            }
+        }
+        // Later than the previous claim even if the clock went back, so each claim is told
+        // apart by its time
+        long claimedAt = Math.max(now, previousClaim + 1);
+        values.put(FetchJobEntry.COLUMN_STATE, FetchJobEntry.STATE_RUNNING);
+        values.put(FetchJobEntry.COLUMN_CLAIMED_AT, claimedAt);
+        update(id, values);
+        mClaimed++;
+        return new Job(id, cursor.getString(COL_LOCATION_SETTING), cursor.getInt(COL_NUM_DAYS),
+                attempts, claimedAt);
+    }
+
+    /**
+     * Ends a claim.  A done job is deleted, a failed one waits to be retried or is given up
+     * on, and a released one can be claimed again right away without counting as a failure.
+     *
+     * @return the job's state afterwards, or -1 if the claim was no longer held.
+     */
+    int finish(long id, long claimedAt, int outcome, String error, long now) {
+        mDb.beginTransactionNonExclusive();
+        try {
+            String[] args = {Long.toString(id), Long.toString(claimedAt)};
+            String held = FetchJobEntry._ID + " = ? AND " +
+                    FetchJobEntry.COLUMN_STATE + " = " + FetchJobEntry.STATE_RUNNING + " AND " +
+                    FetchJobEntry.COLUMN_CLAIMED_AT + " = ?";
+            Cursor cursor = mDb.query(FetchJobEntry.TABLE_NAME,
+                    new String[]{FetchJobEntry.COLUMN_ATTEMPTS}, held, args, null, null, null);
+            int attempts;
+            try {
+                if (!cursor.moveToFirst()) {
+                    return -1;
+                }
+                attempts = cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+
+            int state;
+            ContentValues values = new ContentValues();
+            switch (outcome) {
+                case FetchJobEntry.OUTCOME_DONE:
+                    mDb.delete(FetchJobEntry.TABLE_NAME, held, args);
+                    mCompleted++;
+                    state = FetchJobEntry.STATE_DONE;
+                    break;
+                case FetchJobEntry.OUTCOME_RELEASED:
+                    state = FetchJobEntry.STATE_PENDING;
+                    values.put(FetchJobEntry.COLUMN_NEXT_RUN_AT, now);
+                    break;
+                case FetchJobEntry.OUTCOME_FAILED:
+                    attempts++;
+                    values.put(FetchJobEntry.COLUMN_ATTEMPTS, attempts);
+                    values.put(FetchJobEntry.COLUMN_LAST_ERROR, error);
+                    if (attempts >= MAX_ATTEMPTS) {
+                        state = FetchJobEntry.STATE_FAILED;
+                        mGaveUp++;
+                    } else {
+                        state = FetchJobEntry.STATE_PENDING;
+                        values.put(FetchJobEntry.COLUMN_NEXT_RUN_AT,
+                                now + backoffMillis(attempts));
+                        mRetried++;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown outcome: " + outcome);
+            }
+            if (values.size() > 0) {
+                values.put(FetchJobEntry.COLUMN_STATE, state);
+                update(id, values);
+            }
+            mDb.setTransactionSuccessful();
+            return state;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * When the first waiting job is due, or 0 if no job waits.
+     */
+    long getNextRunAt() {
+        Cursor cursor = mDb.rawQuery("SELECT COALESCE(MIN(" + FetchJobEntry.COLUMN_NEXT_RUN_AT +
+                "), 0) FROM " + FetchJobEntry.TABLE_NAME + " WHERE " +
+                FetchJobEntry.COLUMN_STATE + " = " + FetchJobEntry.STATE_PENDING, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The queue as the single row of FetchJobEntry.STATS_URI.
+     */
+    Cursor stats(long now) {
+        Object[] row = new Object[STATS_COLUMNS.length];
+        Cursor cursor = mDb.rawQuery(SQL_STATS, new String[]{Long.toString(now)});
+        try {
+            cursor.moveToFirst();
+            for (int i = 0; i < STATS_QUERY_COLUMNS; i++) {
+                row[i] = cursor.getLong(i);
+            }
+        } finally {
+            cursor.close();
+        }
+        int[] counters = counters();
+        for (int i = 0; i < counters.length; i++) {
+            row[STATS_QUERY_COLUMNS + i] = counters[i];
+        }
+        MatrixCursor stats = new MatrixCursor(STATS_COLUMNS, 1);
+        stats.addRow(row);
+        return stats;
+    }
+
+    private int[] counters() {
+        return new int[]{mEnqueued, mDeduped, mClaimed, mCompleted, mRetried, mGaveUp,
+                mRecovered};
+    }
+
+    private void update(long id, ContentValues values) {
+        mDb.update(FetchJobEntry.TABLE_NAME, values, FetchJobEntry._ID + " = ?",
+                new String[]{Long.toString(id)});
+    }
+
+    @Override
+    public String toString() {
+        return "FetchJobStore: " + mEnqueued + " enqueued, " + mDeduped + " deduped, " +
+                mClaimed + " claimed, " + mCompleted + " completed, " + mRetried +
+                " retried, " + mGaveUp + " given up, " + mRecovered + " recovered";
+    }
+}
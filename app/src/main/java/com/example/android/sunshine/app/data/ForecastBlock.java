@@ -0,0 +1,300 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * A run of forecast days for one location, stored column by column.
+ *
+ * Each weather column is a primitive array indexed by day, so a parsed forecast can be
+ * persisted, formatted and displayed without boxing a value per field.  Descriptions repeat
+ * a lot ("Clear", "Rain", ...) and are kept once in a small table that the days index into.
+ *
+ * The arrays may be longer than {@link #size}; only the first size entries are valid.
+ */
+public class ForecastBlock {
+
+    // Bundle keys used by toBundle() and fromBundle()
+    private static final String KEY_LOCATION_SETTING = "location_setting";
+    private static final String KEY_CITY_NAME = "city_name";
+    private static final String KEY_CITY_ID = "city_id";
+    private static final String KEY_COORD_LAT = "coord_lat";
+    private static final String KEY_COORD_LONG = "coord_long";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_DATE = "date";
+    private static final String KEY_MIN_TEMP = "min";
+    private static final String KEY_MAX_TEMP = "max";
+    private static final String KEY_PRESSURE = "pressure";
+    private static final String KEY_WIND_SPEED = "wind";
+    private static final String KEY_DEGREES = "degrees";
+    private static final String KEY_WEATHER_ID = "weather_id";
+    private static final String KEY_HUMIDITY = "humidity";
+    private static final String KEY_DESCRIPTION_INDEX = "description_index";
+    private static final String KEY_DESCRIPTIONS = "descriptions";
+
+    public final String locationSetting;
+    public final String cityName;
+    // The forecast server's id for the city, 0 if the response didn't say
+    public final long cityId;
+    public final double coordLat;
+    public final double coordLong;
+
+    public final int size;
+
+    public final long[] date;
+    public final double[] minTemp;
+    public final double[] maxTemp;
+    public final double[] pressure;
+    public final double[] windSpeed;
+    public final double[] degrees;
+    public final int[] weatherId;
+    public final int[] humidity;
+
+    public final int[] descriptionIndex;
+    public final String[] descriptions;
+
+    private ForecastBlock(String locationSetting, String cityName, long cityId, double coordLat,
+                          double coordLong, int size, long[] date, double[] minTemp,
+                          double[] maxTemp, double[] pressure, double[] windSpeed,
+                          double[] degrees, int[] weatherId, int[] humidity,
+                          int[] descriptionIndex, String[] descriptions) {
+        this.locationSetting = locationSetting;
+        this.cityName = cityName;
+        this.cityId = cityId;
+        this.coordLat = coordLat;
+        this.coordLong = coordLong;
+        this.size = size;
+        this.date = date;
+        this.minTemp = minTemp;
+        this.maxTemp = maxTemp;
+        this.pressure = pressure;
+        this.windSpeed = windSpeed;
+        this.degrees = degrees;
+        this.weatherId = weatherId;
+        this.humidity = humidity;
+        this.descriptionIndex = descriptionIndex;
+        this.descriptions = descriptions;
+    }
+
+    public String getDescription(int day) {
+        return descriptions[descriptionIndex[day]];
+    }
+
+    /**
+     * Expands the block into one ContentValues per day, for callers of the row based
+     * provider API.
+     */
+    public ContentValues[] toContentValues(long locationId) {
+        ContentValues[] values = new ContentValues[size];
+        for (int i = 0; i < size; i++) {
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, date[i]);
+            // humidity is a REAL column
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, (double) humidity[i]);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed[i]);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, degrees[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, minTemp[i]);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, getDescription(i));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId[i]);
+
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    /**
+     * Packs the block into a Bundle of primitive arrays, which is how blocks travel through
+     * {@link android.content.ContentResolver#call}.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_LOCATION_SETTING, locationSetting);
+        bundle.putString(KEY_CITY_NAME, cityName);
+        bundle.putLong(KEY_CITY_ID, cityId);
+        bundle.putDouble(KEY_COORD_LAT, coordLat);
+        bundle.putDouble(KEY_COORD_LONG, coordLong);
+        bundle.putInt(KEY_SIZE, size);
+        bundle.putLongArray(KEY_DATE, date);
+        bundle.putDoubleArray(KEY_MIN_TEMP, minTemp);
+        bundle.putDoubleArray(KEY_MAX_TEMP, maxTemp);
+        bundle.putDoubleArray(KEY_PRESSURE, pressure);
+        bundle.putDoubleArray(KEY_WIND_SPEED, windSpeed);
+        bundle.putDoubleArray(KEY_DEGREES, degrees);
+        bundle.putIntArray(KEY_WEATHER_ID, weatherId);
+        bundle.putIntArray(KEY_HUMIDITY, humidity);
+        bundle.putIntArray(KEY_DESCRIPTION_INDEX, descriptionIndex);
+        bundle.putStringArray(KEY_DESCRIPTIONS, descriptions);
+        return bundle;
+    }
+
+    /**
+     * Unpacks a block written by {@link #toBundle()}.
+     *
+     * @return the block, or null if the bundle doesn't hold one.
+     */
+    public static ForecastBlock fromBundle(Bundle bundle) {
+        if (bundle == null || !bundle.containsKey(KEY_DATE)) {
+            return null;
+        }
+        return new ForecastBlock(
+                bundle.getString(KEY_LOCATION_SETTING),
+                bundle.getString(KEY_CITY_NAME),
+                bundle.getLong(KEY_CITY_ID),
+                bundle.getDouble(KEY_COORD_LAT),
+                bundle.getDouble(KEY_COORD_LONG),
+                bundle.getInt(KEY_SIZE),
+                bundle.getLongArray(KEY_DATE),
+                bundle.getDoubleArray(KEY_MIN_TEMP),
+                bundle.getDoubleArray(KEY_MAX_TEMP),
+                bundle.getDoubleArray(KEY_PRESSURE),
+                bundle.getDoubleArray(KEY_WIND_SPEED),
+                bundle.getDoubleArray(KEY_DEGREES),
+                bundle.getIntArray(KEY_WEATHER_ID),
+                bundle.getIntArray(KEY_HUMIDITY),
+                bundle.getIntArray(KEY_DESCRIPTION_INDEX),
+                bundle.getStringArray(KEY_DESCRIPTIONS));
+    }
+
+    /**
+     * Accumulates days into growable columns.  A Builder is not thread safe.
+     */
+    public static class Builder {
+
+        private static final int DEFAULT_CAPACITY = 16;
+
+        private String mLocationSetting;
+        private String mCityName;
+        private long mCityId;
+        private double mCoordLat;
+        private double mCoordLong;
+
+        private int mSize;
+
+        private long[] mDate;
+        private double[] mMinTemp;
+        private double[] mMaxTemp;
+        private double[] mPressure;
+        private double[] mWindSpeed;
+        private double[] mDegrees;
+        private int[] mWeatherId;
+        private int[] mHumidity;
+
+        private int[] mDescriptionIndex;
+        private String[] mDescriptions = new String[8];
+        private int mDescriptionCount;
+
+        public Builder(String locationSetting) {
+            this(locationSetting, DEFAULT_CAPACITY);
+        }
+
+        public Builder(String locationSetting, int capacity) {
+            mLocationSetting = locationSetting;
+            allocate(Math.max(capacity, 1));
+        }
+
+        public Builder setCity(String cityName, double coordLat, double coordLong) {
+            mCityName = cityName;
+            mCoordLat = coordLat;
+            mCoordLong = coordLong;
+            return this;
+        }
+
+        public Builder setCityId(long cityId) {
+            mCityId = cityId;
+            return this;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public Builder add(long date, double minTemp, double maxTemp, double pressure,
+                           double windSpeed, double degrees, int weatherId, int humidity,
+                           String description) {
+            if (mSize == mDate.length) {
+                allocate(mSize * 2);
+            }
+            int i = mSize++;
+            mDate[i] = date;
+            mMinTemp[i] = minTemp;
+            mMaxTemp[i] = maxTemp;
+            mPressure[i] = pressure;
+            mWindSpeed[i] = windSpeed;
+            mDegrees[i] = degrees;
+            mWeatherId[i] = weatherId;
+            mHumidity[i] = humidity;
+            mDescriptionIndex[i] = internDescription(description);
+            return this;
+        }
+
+        /**
+         * The returned block shares this builder's arrays, so the builder must not be used
+         * after calling this.
+         */
+        public ForecastBlock build() {
+            return new ForecastBlock(mLocationSetting, mCityName, mCityId, mCoordLat, mCoordLong,
+                    mSize,
+                    mDate, mMinTemp, mMaxTemp, mPressure, mWindSpeed, mDegrees, mWeatherId,
+                    mHumidity, mDescriptionIndex, mDescriptions);
+        }
+
+        // There are only a handful of distinct descriptions, a linear scan beats hashing here
+        private int internDescription(String description) {
+            for (int i = 0; i < mDescriptionCount; i++) {
+                String known = mDescriptions[i];
+                if (known == description || (known != null && known.equals(description))) {
+                    return i;
+                }
+            }
+            if (mDescriptionCount == mDescriptions.length) {
+                String[] grown = new String[mDescriptionCount * 2];
+                System.arraycopy(mDescriptions, 0, grown, 0, mDescriptionCount);
+                mDescriptions = grown;
+            }
+            mDescriptions[mDescriptionCount] = description;
+            return mDescriptionCount++;
+        }
+
+        private void allocate(int capacity) {
+            mDate = grow(mDate, capacity);
+            mMinTemp = grow(mMinTemp, capacity);
+            mMaxTemp = grow(mMaxTemp, capacity);
+            mPressure = grow(mPressure, capacity);
+            mWindSpeed = grow(mWindSpeed, capacity);
+            mDegrees = grow(mDegrees, capacity);
+            mWeatherId = grow(mWeatherId, capacity);
+            mHumidity = grow(mHumidity, capacity);
+            mDescriptionIndex = grow(mDescriptionIndex, capacity);
+        }
+
+        private long[] grow(long[] array, int capacity) {
+            long[] grown = new long[capacity];
+            if (array != null) {
+                System.arraycopy(array, 0, grown, 0, mSize);
+            }
+            return grown;
+        }
+
+        private double[] grow(double[] array, int capacity) {
+            double[] grown = new double[capacity];
+            if (array != null) {
+                System.arraycopy(array, 0, grown, 0, mSize);
+            }
+            return grown;
+        }
+
+        private int[] grow(int[] array, int capacity) {
+            int[] grown = new int[capacity];
+            if (array != null) {
+                System.arraycopy(array, 0, grown, 0, mSize);
+            }
+            return grown;
+        }
+    }
+}
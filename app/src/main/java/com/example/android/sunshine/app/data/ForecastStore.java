@@ -0,0 +1,536 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory copy of the weather/&lt;location setting&gt; query results, keyed by
+ * location setting and start date.
+ *
+ * A location's forecast only changes when it is fetched, yet the list queries it on every
+ * load.  The store runs the join once, keeps the rows column by column in primitive arrays and
+ * answers later queries with a cursor over that snapshot.  Snapshots are never modified, and
+ * the map holding them is replaced rather than changed, so readers take no lock.
+ *
+ * The provider invalidates the store from its own write paths, after the write committed.
+ * Every invalidation bumps a generation, and a snapshot loaded before one is not kept, so a
+ * load racing a write can't bring back the rows the write replaced.  Writes that bypass the
+ * provider are not seen.
+ */
+class ForecastStore {
+
+    private static final String[] STATS_COLUMNS = {
+            WeatherEntry.STORE_STATS_HITS,
+            WeatherEntry.STORE_STATS_MISSES,
+            WeatherEntry.STORE_STATS_BYPASSED,
+            WeatherEntry.STORE_STATS_HIT_RATIO,
+            WeatherEntry.STORE_STATS_ENTRIES,
+            WeatherEntry.STORE_STATS_RESIDENT_BYTES
+    };
+
+    static final int DEFAULT_MAX_ENTRIES = 16;
+    static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+    // Everything the join can return, in the order snapshots store it.  Projections are
+    // served from these, a projection asking for anything else goes to the database.
+    private static final String[] TABLES = {
+            WeatherEntry.TABLE_NAME, WeatherEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+            WeatherEntry.TABLE_NAME, WeatherEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+            WeatherEntry.TABLE_NAME, WeatherEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+            WeatherEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+            LocationEntry.TABLE_NAME, LocationEntry.TABLE_NAME, LocationEntry.TABLE_NAME,
+            LocationEntry.TABLE_NAME, LocationEntry.TABLE_NAME
+    };
+    private static final String[] COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_FETCHED_AT
+    };
+    private static final int[] TYPES = {
+            Cursor.FIELD_TYPE_INTEGER,
+            Cursor.FIELD_TYPE_INTEGER,
+            Cursor.FIELD_TYPE_INTEGER,
+            Cursor.FIELD_TYPE_INTEGER,
+            Cursor.FIELD_TYPE_STRING,
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_STRING,
+            Cursor.FIELD_TYPE_STRING,
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_INTEGER
+    };
+    private static final String[] LOAD_PROJECTION = new String[COLUMNS.length];
+
+    static {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            LOAD_PROJECTION[i] = TABLES[i] + "." + COLUMNS[i];
+        }
+    }
+
+    private static final String LOAD_SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // These indices are tied to COLUMNS
+    static final int COL_DATE = 2;
+    static final int COL_WEATHER_ID = 3;
+    static final int COL_MIN_TEMP = 5;
+    static final int COL_MAX_TEMP = 6;
+    static final int COL_FETCHED_AT = 15;
+
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+
+    // Replaced as a whole under the lock, read without it
+    private volatile Map<String, Snapshot> mSnapshots = new HashMap<String, Snapshot>();
+    private volatile long mResidentBytes;
+    private long mGeneration;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mBypassCount = new AtomicLong();
+
+    /**
+     * The rows of one query, column by column.  Never modified once loaded.
+     */
+    static class Snapshot {
+        final int size;
+        // long[], double[] or String[] per column, following TYPES
+        final Object[] columns;
+        final long bytes;
+        volatile long lastAccess;
+
+        Snapshot(int size, Object[] columns, long bytes) {
+            this.size = size;
+            this.columns = columns;
+            this.bytes = bytes;
+        }
+
+        long[] longs(int column) {
+            return (long[]) columns[column];
+        }
+
+        double[] doubles(int column) {
+            return (double[]) columns[column];
+        }
+    }
+
+    ForecastStore() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    ForecastStore(int maxEntries, long maxBytes) {
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Answers weather/&lt;location setting&gt;[?date=startDate] from memory, loading it from db
+     * first if it isn't stored yet.
+     *
+     * @param startDate the start date from the URI, or 0 for none.
+     * @return a cursor over the stored rows, or null if the projection or sort order can't be
+     * served from the store, in which case the caller queries the database itself.
+     */
+    Cursor query(SQLiteDatabase db, String locationSetting, long startDate, String[] projection,
+                 String sortOrder) {
+        int[] columnMap = mapProjection(projection);
+        if (columnMap == null || !isDateOrder(sortOrder)) {
+            mBypassCount.incrementAndGet();
+            return null;
+        }
+
+        return new SnapshotCursor(get(db, locationSetting, startDate), columnMap, projection);
+    }
+
+    /**
+     * Returns the rows of weather/&lt;location setting&gt;[?date=startDate], loading them from db
+     * first if they aren't stored yet.  The snapshot must not be modified.
+     */
+    Snapshot get(SQLiteDatabase db, String locationSetting, long startDate) {
+        String key = key(locationSetting, startDate);
+        Snapshot snapshot = mSnapshots.get(key);
+        if (snapshot != null) {
+            mHitCount.incrementAndGet();
+        } else {
+            mMissCount.incrementAndGet();
+            long generation;
+            synchronized (this) {
+                generation = mGeneration;
+            }
+            snapshot = load(db, locationSetting, startDate);
+            install(key, snapshot, generation);
+        }
+        snapshot.lastAccess = System.nanoTime();
+        return snapshot;
+    }
+
+    /**
+     * Drops every snapshot of the location.
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        String prefix = locationSetting + '\u0000';
+        Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>(mSnapshots);
+        long bytes = mResidentBytes;
+        for (Map.Entry<String, Snapshot> entry : mSnapshots.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                snapshots.remove(entry.getKey());
+                bytes -= entry.getValue().bytes;
+            }
+        }
+        mSnapshots = snapshots;
+        mResidentBytes = bytes;
+    }
+
+    /**
+     * Stamps the stored snapshots of the location with a new fetched_at, for a fetch that left
+     * the rows as they were.  Each snapshot is replaced by a copy sharing every other column,
+     * and a load already under way is not kept, since it may carry the old stamp.
+     */
+    synchronized void touch(String locationSetting, long fetchedAt) {
+        mGeneration++;
+        String prefix = locationSetting + '\u0000';
+        Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>(mSnapshots);
+        for (Map.Entry<String, Snapshot> entry : mSnapshots.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                Snapshot stored = entry.getValue();
+                Object[] columns = stored.columns.clone();
+                long[] stamps = new long[stored.size];
+                Arrays.fill(stamps, fetchedAt);
+                columns[COL_FETCHED_AT] = stamps;
+                Snapshot touched = new Snapshot(stored.size, columns, stored.bytes);
+                touched.lastAccess = stored.lastAccess;
+                snapshots.put(entry.getKey(), touched);
+            }
+        }
+        mSnapshots = snapshots;
+    }
+
+    /**
+     * Drops every snapshot.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mSnapshots = new HashMap<String, Snapshot>();
+        mResidentBytes = 0;
+    }
+
+    long getHitCount() {
+        return mHitCount.get();
+    }
+
+    long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Number of queries that asked for something the store doesn't keep.
+     */
+    long getBypassCount() {
+        return mBypassCount.get();
+    }
+
+    /**
+     * Hits over hits and misses, 0 before the first query.
+     */
+    double getHitRatio() {
+        long hits = mHitCount.get();
+        long total = hits + mMissCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Approximate heap held by the stored snapshots.
+     */
+    long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    int getEntryCount() {
+        return mSnapshots.size();
+    }
+
+    /**
+     * The counters and contents as the single row of WeatherEntry.STORE_STATS_URI.
+     */
+    synchronized Cursor stats() {
+        MatrixCursor stats = new MatrixCursor(STATS_COLUMNS, 1);
+        stats.addRow(new Object[]{getHitCount(), getMissCount(), getBypassCount(),
+                getHitRatio(), getEntryCount(), getResidentBytes()});
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "ForecastStore " + getEntryCount() + " entries, " + getResidentBytes() +
+                " bytes, hits " + getHitCount() + ", misses " + getMissCount() + ", bypassed " +
+                getBypassCount();
+    }
+
+    // Keeps the snapshot unless the store was invalidated since the load began, evicting the
+    // least recently read snapshots to stay within bounds
+    private synchronized void install(String key, Snapshot snapshot, long generation) {
+        if (generation != mGeneration || snapshot.bytes > mMaxBytes) {
+            return;
+        }
+        Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>(mSnapshots);
+        long bytes = mResidentBytes;
+        Snapshot replaced = snapshots.put(key, snapshot);
+        if (replaced != null) {
+            bytes -= replaced.bytes;
+        }
+        bytes += snapshot.bytes;
+        while (snapshots.size() > mMaxEntries || bytes > mMaxBytes) {
+            String eldestKey = null;
+            long eldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<String, Snapshot> entry : snapshots.entrySet()) {
+                if (entry.getValue() != snapshot && entry.getValue().lastAccess < eldestAccess) {
+                    eldestKey = entry.getKey();
+                    eldestAccess = entry.getValue().lastAccess;
+                }
+            }
+            bytes -= snapshots.remove(eldestKey).bytes;
+        }
+        mSnapshots = snapshots;
+        mResidentBytes = bytes;
+    }
+
+    private static Snapshot load(SQLiteDatabase db, String locationSetting, long startDate) {
+        String selection;
+        String[] selectionArgs;
+        if (startDate == 0) {
+            selection = WeatherProvider.sLocationSettingSelection;
+            selectionArgs = new String[]{locationSetting};
+        } else {
+            selection = WeatherProvider.sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+        }
+        Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                LOAD_PROJECTION, selection, selectionArgs, null, null, LOAD_SORT_ORDER);
+        try {
+            int size = cursor.getCount();
+            Object[] columns = new Object[COLUMNS.length];
+            // Array headers and the snapshot itself
+            long bytes = 64 + 16 * COLUMNS.length;
+            for (int c = 0; c < COLUMNS.length; c++) {
+                switch (TYPES[c]) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        columns[c] = new long[size];
+                        bytes += 8L * size;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        columns[c] = new double[size];
+                        bytes += 8L * size;
+                        break;
+                    default:
+                        columns[c] = new String[size];
+                        bytes += 4L * size;
+                        break;
+                }
+            }
+            for (int row = 0; cursor.moveToNext(); row++) {
+                for (int c = 0; c < COLUMNS.length; c++) {
+                    switch (TYPES[c]) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            ((long[]) columns[c])[row] = cursor.getLong(c);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            ((double[]) columns[c])[row] = cursor.getDouble(c);
+                            break;
+                        default:
+                            String value = cursor.getString(c);
+                            ((String[]) columns[c])[row] = value;
+                            if (value != null) {
+                                bytes += 40 + 2L * value.length();
+                            }
+                            break;
+                    }
+                }
+            }
+            return new Snapshot(size, columns, bytes);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String key(String locationSetting, long startDate) {
+        return locationSetting + '\u0000' + startDate;
+    }
+
+    // Index into COLUMNS for every projected column, or null if one of them isn't kept.
+    // A bare _id is ambiguous in the join, like it would be in SQL.
+    static int[] mapProjection(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+        int[] columnMap = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String column = projection[i].trim();
+            String table = null;
+            int dot = column.indexOf('.');
+            if (dot >= 0) {
+                table = column.substring(0, dot);
+                column = column.substring(dot + 1);
+            } else if (WeatherEntry._ID.equals(column)) {
+                return null;
+            }
+            columnMap[i] = -1;
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (COLUMNS[c].equals(column) && (table == null || TABLES[c].equals(table))) {
+                    columnMap[i] = c;
+                    break;
+                }
+            }
+            if (columnMap[i] == -1) {
+                return null;
+            }
+        }
+        return columnMap;
+    }
+
+    // Snapshots are stored in date order, which is also what an unordered query gets
+    private static boolean isDateOrder(String sortOrder) {
+        if (sortOrder == null) {
+            return true;
+        }
+        String order = sortOrder.trim().replaceAll("\\s+", " ").toLowerCase();
+        if (order.startsWith(WeatherEntry.TABLE_NAME + ".")) {
+            order = order.substring(WeatherEntry.TABLE_NAME.length() + 1);
+        }
+        return order.equals(WeatherEntry.COLUMN_DATE) ||
+                order.equals(WeatherEntry.COLUMN_DATE + " asc");
+    }
+
+    /**
+     * Read-only cursor over a snapshot, with the columns in the caller's projection order.
+     */
+    static class SnapshotCursor extends AbstractCursor {
+        private final Snapshot mSnapshot;
+        private final int[] mColumnMap;
+        private final String[] mColumnNames;
+
+        SnapshotCursor(Snapshot snapshot, int[] columnMap, String[] projection) {
+            mSnapshot = snapshot;
+            mColumnMap = columnMap;
+            // Like SQLite, a qualified column is named without its table
+            mColumnNames = new String[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                mColumnNames[i] = COLUMNS[columnMap[i]];
+            }
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.size;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public int getType(int column) {
+            return TYPES[mColumnMap[column]];
+        }
+
+        @Override
+        public String getString(int column) {
+            Object values = mSnapshot.columns[mColumnMap[column]];
+            int row = getPosition();
+            if (values instanceof String[]) {
+                return ((String[]) values)[row];
+            }
+            if (values instanceof long[]) {
+                return Long.toString(((long[]) values)[row]);
+            }
+            return Double.toString(((double[]) values)[row]);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object values = mSnapshot.columns[mColumnMap[column]];
+            int row = getPosition();
+            if (values instanceof long[]) {
+                return ((long[]) values)[row];
+            }
+            if (values instanceof double[]) {
+                return (long) ((double[]) values)[row];
+            }
+            return (long) parseDouble(((String[]) values)[row]);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object values = mSnapshot.columns[mColumnMap[column]];
+            int row = getPosition();
+            if (values instanceof double[]) {
+                return ((double[]) values)[row];
+            }
+            if (values instanceof long[]) {
+                return ((long[]) values)[row];
+            }
+            return parseDouble(((String[]) values)[row]);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        // Text that isn't a number reads as 0, as it does from SQLite
+        private static double parseDouble(String value) {
+            if (value == null) {
+                return 0;
+            }
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            Object values = mSnapshot.columns[mColumnMap[column]];
+            return values instanceof String[] && ((String[]) values)[getPosition()] == null;
+        }
+    }
+}
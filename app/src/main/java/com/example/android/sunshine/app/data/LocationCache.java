@@ -0,0 +1,62 @@
+package com.example.android.sunshine.app.data;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * Bounded in-memory map from location_setting to the location row it resolved to.
+ *
+ * Location rows are written once per setting and then only read, so every fetch after the
+ * first can be answered without touching the database.  The provider owns the cache and
+ * evicts it whenever the location table is deleted from or updated.
+ */
+class LocationCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 32;
+
+    /**
+     * A resolved location row.
+     */
+    static class Entry {
+        final long id;
+        final String cityName;
+        final double coordLat;
+        final double coordLong;
+
+        Entry(long id, String cityName, double coordLat, double coordLong) {
+            this.id = id;
+            this.cityName = cityName;
+            this.coordLat = coordLat;
+            this.coordLong = coordLong;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries;
+
+    LocationCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    LocationCache(int maxEntries) {
+        mEntries = new LruCache<String, Entry>(maxEntries);
+    }
+
+    Entry get(String locationSetting) {
+        return mEntries.get(locationSetting);
+    }
+
+    void put(String locationSetting, Entry entry) {
+        mEntries.put(locationSetting, entry);
+    }
+
+    void invalidate() {
+        mEntries.evictAll();
+    }
+
+    int hitCount() {
+        return mEntries.hitCount();
+    }
+
+    int missCount() {
+        return mEntries.missCount();
+    }
+}
@@ -25,6 +25,101 @@ public class WeatherContract {
     // Possible paths appended to base content URI for possible URI's
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_FETCH_JOB = "fetch_job";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_FORECAST_STORE = "forecast_store";
+
+    // Methods served by WeatherProvider.call(), invoked with BASE_CONTENT_URI
+
+    // Stores a ForecastBlock.toBundle() for the location in EXTRA_LOCATION_ID, which is
+    // required, and stamps the location's fetched_at with EXTRA_FETCHED_AT, or the current
+    // time.  Observers are only notified when a day was inserted or changed.
+    public static final String METHOD_BULK_INSERT_BLOCK = "bulk_insert_block";
+    // Stores the METHOD_BULK_INSERT_BLOCK extras in EXTRA_BLOCKS in one transaction, stamping
+    // each location with EXTRA_FETCHED_AT, or the current time.  Returns the summed RESULT_*.
+    public static final String METHOD_BULK_INSERT_BLOCKS = "bulk_insert_blocks";
+    // Returns RESULT_LOCATION_ID for the location setting passed as arg, storing the location
+    // from EXTRA_CITY_NAME, EXTRA_COORD_LAT and EXTRA_COORD_LONG if it is new
+    public static final String METHOD_RESOLVE_LOCATION = "resolve_location";
+    // Returns the stored days of the location setting passed as arg from EXTRA_START_DATE on,
+    // at most EXTRA_NUM_DAYS of them, as the RESULT_* arrays below
+    public static final String METHOD_GET_FORECAST_BLOCK = "get_forecast_block";
+    // Same as METHOD_GET_FORECAST_BLOCK for every setting in EXTRA_LOCATION_SETTINGS, with the
+    // days of all of them packed into the same arrays
+    public static final String METHOD_GET_FORECAST_BLOCKS = "get_forecast_blocks";
+    // Queues a fetch of the location setting passed as arg for EXTRA_NUM_DAYS days, unless
+    // the same fetch is queued already, and returns RESULT_JOB_ID and RESULT_DEDUPED.  With
+    // EXTRA_FAILED_ATTEMPTS the job starts out waiting as if it had failed that many times.
+    public static final String METHOD_ENQUEUE_FETCH_JOB = "enqueue_fetch_job";
+    // Claims the queued fetch that is due first, or only the one for the location setting
+    // passed as arg and EXTRA_NUM_DAYS, and returns it as the RESULT_JOB_* values.
+    // RESULT_JOB_ID is -1 if none is due, and RESULT_NEXT_RUN_AT then says when one will be.
+    // With EXTRA_RUN_NOW the location's job is claimed even while it waits to be retried.
+    public static final String METHOD_CLAIM_FETCH_JOB = "claim_fetch_job";
+    // Ends the claim on EXTRA_JOB_ID made at EXTRA_CLAIMED_AT with EXTRA_JOB_OUTCOME, and
+    // returns the job's RESULT_JOB_STATE afterwards, -1 if the claim was no longer held
+    public static final String METHOD_FINISH_FETCH_JOB = "finish_fetch_job";
+
+    // Extras understood by the call() methods
+    public static final String EXTRA_LOCATION_ID = "location_id";
+    // Rows per committed transaction, optional
+    public static final String EXTRA_CHUNK_SIZE = "chunk_size";
+    public static final String EXTRA_FETCHED_AT = "fetched_at";
+    // An ArrayList<Bundle>
+    public static final String EXTRA_BLOCKS = "blocks";
+    public static final String EXTRA_CITY_NAME = "city_name";
+    public static final String EXTRA_COORD_LAT = "coord_lat";
+    public static final String EXTRA_COORD_LONG = "coord_long";
+    // A normalized date, optional, every stored day if missing
+    public static final String EXTRA_START_DATE = "start_date";
+    // Optional, every stored day if missing
+    public static final String EXTRA_NUM_DAYS = "num_days";
+    public static final String EXTRA_LOCATION_SETTINGS = "location_settings";
+    // Optional, 0 if missing
+    public static final String EXTRA_FAILED_ATTEMPTS = "failed_attempts";
+    // Optional, false if missing
+    public static final String EXTRA_RUN_NOW = "run_now";
+    public static final String EXTRA_JOB_ID = "job_id";
+    public static final String EXTRA_CLAIMED_AT = "claimed_at";
+    // One of the FetchJobEntry.OUTCOME_* values
+    public static final String EXTRA_JOB_OUTCOME = "job_outcome";
+    // What went wrong, optional
+    public static final String EXTRA_JOB_ERROR = "job_error";
+
+    // Results returned by the ingest methods
+    public static final String RESULT_ROWS = "rows";
+    public static final String RESULT_INSERTED = "inserted";
+    public static final String RESULT_UPDATED = "updated";
+    public static final String RESULT_UNCHANGED = "unchanged";
+    public static final String RESULT_ROWS_PER_SECOND = "rows_per_second";
+
+    // Results returned by METHOD_RESOLVE_LOCATION
+    public static final String RESULT_LOCATION_ID = "location_id";
+    // Whether the location was answered from memory without touching the database
+    public static final String RESULT_CACHE_HIT = "cache_hit";
+
+    // Results returned by METHOD_GET_FORECAST_BLOCK(S).  The days of RESULT_LOCATION_SETTINGS[i]
+    // are [RESULT_OFFSETS[i], RESULT_OFFSETS[i + 1]) of the other arrays, in date order.
+    public static final String RESULT_LOCATION_SETTINGS = "location_settings";
+    public static final String RESULT_OFFSETS = "offsets";
+    public static final String RESULT_DATES = "dates";
+    public static final String RESULT_MIN_TEMPS = "min_temps";
+    public static final String RESULT_MAX_TEMPS = "max_temps";
+    public static final String RESULT_WEATHER_IDS = "weather_ids";
+
+    // Results returned by the fetch job methods
+    public static final String RESULT_JOB_ID = "job_id";
+    // Whether METHOD_ENQUEUE_FETCH_JOB found the same fetch queued already
+    public static final String RESULT_DEDUPED = "deduped";
+    public static final String RESULT_JOB_LOCATION_SETTING = "location_setting";
+    public static final String RESULT_JOB_NUM_DAYS = "num_days";
+    // Times the job failed before this claim
+    public static final String RESULT_JOB_ATTEMPTS = "attempts";
+    // Identifies the claim, METHOD_FINISH_FETCH_JOB needs it back
+    public static final String RESULT_CLAIMED_AT = "claimed_at";
+    // When the first waiting job is due, 0 if no job waits
+    public static final String RESULT_NEXT_RUN_AT = "next_run_at";
+    public static final String RESULT_JOB_STATE = "job_state";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -64,11 +159,92 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // When the forecast for this location was last stored, in milliseconds since the
+        // epoch.  0 if it never was.
+        public static final String COLUMN_FETCHED_AT = "fetched_at";
+
+        // The OpenWeatherMap id of the city the location resolved to, so later requests can
+        // ask for the city directly instead of searching for the setting again.  0 if it
+        // isn't known yet.
+        public static final String COLUMN_CITY_ID = "city_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
     }
 
+    /*
+     * Inner class that defines the contents of the fetch job table, the forecast fetches that
+     * are queued or running.  A fetch keeps its row until its forecast is stored, so a fetch
+     * cut off by the process dying is still there for the next process to run.
+     */
+    public static final class FetchJobEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_FETCH_JOB).build();
+
+        // A single row with the STATS_* columns below
+        public static final Uri STATS_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_STATS).build();
+
+        public static final String STATS_CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_FETCH_JOB + "/" + PATH_STATS;
+
+        public static final String TABLE_NAME = "fetch_job";
+
+        // The location setting and number of days to fetch.  There is one job per pair.
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        public static final String COLUMN_NUM_DAYS = "num_days";
+
+        // One of the STATE_* values below
+        public static final String COLUMN_STATE = "state";
+
+        // Times the fetch failed, or was lost with the process running it
+        public static final String COLUMN_ATTEMPTS = "attempts";
+
+        // Times in milliseconds since the epoch: when a waiting job may run, when a running
+        // job was claimed, and when the job was queued
+        public static final String COLUMN_NEXT_RUN_AT = "next_run_at";
+        public static final String COLUMN_CLAIMED_AT = "claimed_at";
+        public static final String COLUMN_CREATED_AT = "created_at";
+
+        // What went wrong the last time the fetch failed, null if it never did
+        public static final String COLUMN_LAST_ERROR = "last_error";
+
+        public static final int STATE_PENDING = 0;
+        public static final int STATE_RUNNING = 1;
+        // Given up on after too many failures, until the same fetch is queued again
+        public static final int STATE_FAILED = 2;
+        // Never stored, the job's row is deleted once its forecast is
+        public static final int STATE_DONE = 3;
+
+        // How a claimed job ended: stored, failed, or handed back without running to the end
+        public static final int OUTCOME_DONE = 0;
+        public static final int OUTCOME_FAILED = 1;
+        public static final int OUTCOME_RELEASED = 2;
+
+        // Columns of the STATS_URI row.  The counts are of the jobs in the table now.
+        public static final String STATS_QUEUED = "queued";
+        public static final String STATS_PENDING = "pending";
+        public static final String STATS_DUE = "due";
+        public static final String STATS_RUNNING = "running";
+        // Pending jobs that failed before
+        public static final String STATS_RETRYING = "retrying";
+        public static final String STATS_FAILED = "failed";
+        // 0 if there is no such job
+        public static final String STATS_OLDEST_CREATED_AT = "oldest_created_at";
+        public static final String STATS_NEXT_RUN_AT = "next_run_at";
+        // Events since the provider started
+        public static final String STATS_ENQUEUED = "enqueued";
+        public static final String STATS_DEDUPED = "deduped";
+        public static final String STATS_CLAIMED = "claimed";
+        public static final String STATS_COMPLETED = "completed";
+        public static final String STATS_RETRIED = "retried";
+        public static final String STATS_GAVE_UP = "gave_up";
+        public static final String STATS_RECOVERED = "recovered";
+    }
+
     /*
      * Inner class that defines the table contents of the weather table
      */
@@ -83,6 +259,15 @@ public class WeatherContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
 
+        // A single row with the STORE_STATS_* columns below, describing the in-memory copy of
+        // the weather/<location setting> results
+        public static final Uri STORE_STATS_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_FORECAST_STORE).appendPath(PATH_STATS).build();
+
+        public static final String STORE_STATS_CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_FORECAST_STORE + "/" + PATH_STATS;
+
         public static final String TABLE_NAME = "weather";
 
         // Column with the foreign key into the location table.
@@ -112,6 +297,17 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Columns of the STORE_STATS_URI row.  Queries since the provider started: answered
+        // from memory, loaded from the database, and ones the store doesn't keep.
+        public static final String STORE_STATS_HITS = "hits";
+        public static final String STORE_STATS_MISSES = "misses";
+        public static final String STORE_STATS_BYPASSED = "bypassed";
+        // Hits over hits and misses, 0 before the first query
+        public static final String STORE_STATS_HIT_RATIO = "hit_ratio";
+        // What the store holds now, the bytes being an estimate of the heap used
+        public static final String STORE_STATS_ENTRIES = "entries";
+        public static final String STORE_STATS_RESIDENT_BYTES = "resident_bytes";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -1,9 +1,17 @@
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.R;
+
+import com.example.android.sunshine.app.data.WeatherContract.FetchJobEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -13,16 +21,124 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * By default the database is journaled in a write-ahead log, so queries keep being answered
+ * from the last committed state while an ingest transaction is open instead of waiting for it.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version and add
+    // the step that gets there to WeatherDbMigrations.
+    static final int DATABASE_VERSION = 7;
+
+    // Serves the forecast list for a location straight from the index: the weather rows of a
+    // location in date order, with every column the list shows
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
 
     static final String DATABASE_NAME = "weather.db";
 
+    // SQLite's own default for wal_autocheckpoint
+    static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    private final boolean mWriteAheadLogging;
+    private final int mWalAutoCheckpointPages;
+
     public WeatherDbHelper(Context context) {
+        this(context,
+                context.getResources().getBoolean(R.bool.weather_db_write_ahead_logging),
+                context.getResources().getInteger(R.integer.weather_db_wal_autocheckpoint_pages));
+    }
+
+    /**
+     * @param writeAheadLogging journal in a write-ahead log rather than a rollback journal.
+     * @param walAutoCheckpointPages log size in pages that triggers a checkpoint on commit, or
+     * 0 to only checkpoint through {@link #checkpointIfDeferred()}.  Ignored without the log.
+     */
+    WeatherDbHelper(Context context, boolean writeAheadLogging, int walAutoCheckpointPages) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        mWalAutoCheckpointPages = walAutoCheckpointPages;
+    }
+
+    boolean isWriteAheadLogging() {
+        return mWriteAheadLogging;
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (!mWriteAheadLogging) {
+            disableWriteAheadLogging(db);
+            return;
+        }
+        if (!db.enableWriteAheadLogging()) {
+            // In memory databases can't have a log
+            return;
+        }
+        // The setting belongs to the connection, and only the connection that writes ever
+        // checkpoints, so set it inside a transaction, which always runs on that connection
+        db.beginTransactionNonExclusive();
+        try {
+            DatabaseUtils.longForQuery(db,
+                    "PRAGMA wal_autocheckpoint = " + mWalAutoCheckpointPages, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Before API 16 the journal mode can't be switched back, but it is only ever turned on
+    // by this helper so a database that never had the log stays without it
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void disableWriteAheadLogging(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.disableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Copies the write-ahead log back into the database when automatic checkpoints are turned
+     * off.  The provider calls this after every bulk write.  A passive checkpoint never waits
+     * on readers, whatever it can't copy yet is left for the next one.
+     *
+     * @return the number of log frames copied back, or -1 if no checkpoint was run.
+     */
+    long checkpointIfDeferred() {
+        if (!mWriteAheadLogging || mWalAutoCheckpointPages > 0) {
+            return -1;
+        }
+        return checkpoint();
+    }
+
+    /**
+     * Runs a passive checkpoint of the write-ahead log.
+     *
+     * @return the number of log frames copied back, or -1 if no checkpoint was run.
+     */
+    long checkpoint() {
+        if (!mWriteAheadLogging) {
+            return -1;
+        }
+        long start = System.nanoTime();
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            // busy, frames in the log, frames copied back
+            long logFrames = cursor.getLong(1);
+            long checkpointed = cursor.getLong(2);
+            Log.d(LOG_TAG, "Checkpointed " + checkpointed + " of " + logFrames + " frames in " +
+                    ((System.nanoTime() - start) / 1000) + " us");
+            return checkpointed;
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -34,7 +150,9 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry._ID + " INTEGER PRIMARY KEY," + LocationEntry.COLUMN_LOCATION_SETTING
                 + " TEXT UNIQUE NOT NULL, " + LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " + LocationEntry.COLUMN_COORD_LONG
-                + " REAL NOT NULL " + ");";
+                + " REAL NOT NULL, " + LocationEntry.COLUMN_FETCHED_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + LocationEntry.COLUMN_CITY_ID + " INTEGER NOT NULL DEFAULT 0"
+                + ");";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
                 // Why AutoIncrement here, and not above?
@@ -63,24 +181,56 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
+                // per location, it's created a UNIQUE constraint.  Writers upsert through
+                // WeatherIngester, which updates an existing day in place instead of having
+                // REPLACE delete it and insert a new row.
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                WeatherEntry.COLUMN_LOC_KEY + "));";
+
+        final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+                INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ");";
+
+        // The fetches that are queued or running, one per location setting and number of
+        // days, see FetchJobStore
+        final String SQL_CREATE_FETCH_JOB_TABLE = "CREATE TABLE " + FetchJobEntry.TABLE_NAME +
+                " (" + FetchJobEntry._ID + " INTEGER PRIMARY KEY," +
+                FetchJobEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                FetchJobEntry.COLUMN_NUM_DAYS + " INTEGER NOT NULL, " +
+                FetchJobEntry.COLUMN_STATE + " INTEGER NOT NULL DEFAULT 0, " +
+                FetchJobEntry.COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, " +
+                FetchJobEntry.COLUMN_NEXT_RUN_AT + " INTEGER NOT NULL DEFAULT 0, " +
+                FetchJobEntry.COLUMN_CLAIMED_AT + " INTEGER NOT NULL DEFAULT 0, " +
+                FetchJobEntry.COLUMN_CREATED_AT + " INTEGER NOT NULL, " +
+                FetchJobEntry.COLUMN_LAST_ERROR + " TEXT, " +
+                " UNIQUE (" + FetchJobEntry.COLUMN_LOCATION_SETTING + ", " +
+                FetchJobEntry.COLUMN_NUM_DAYS + "));";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_FETCH_JOB_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Keep the stored forecasts across schema changes, otherwise every user refetches
+        // everything on the first launch after an update.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion)) {
+            return;
+        }
+
+        // There is no migration from versions this old, so discard the data and start over
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + FetchJobEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
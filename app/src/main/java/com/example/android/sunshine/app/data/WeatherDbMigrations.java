@@ -0,0 +1,159 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ordered steps that bring an existing weather database up to the current schema without
+ * losing its rows.
+ *
+ * Each step moves the schema up by exactly one version and spells out its SQL as it was at
+ * that version, rather than referring to the current contract, so old steps keep doing the
+ * same thing as the schema moves on.  SQLiteOpenHelper already runs onUpgrade inside a
+ * transaction, so a chain that fails part way leaves the database at its old version.
+ */
+class WeatherDbMigrations {
+
+    private static final String LOG_TAG = WeatherDbMigrations.class.getSimpleName();
+
+    /**
+     * Upgrades the schema from version fromVersion to fromVersion + 1.
+     */
+    abstract static class Step {
+        final int fromVersion;
+
+        Step(int fromVersion) {
+            this.fromVersion = fromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Version 3: the weather table drops ON CONFLICT REPLACE from its unique key, SQLite can
+    // only change a constraint by rebuilding the table
+    static final Step WEATHER_UNIQUE_WITHOUT_REPLACE = new Step(2) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE weather_v3 (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, " +
+                    "weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, " +
+                    "max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, " +
+                    "wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                    " UNIQUE (date, location_id));");
+            final String columns = "_id, location_id, date, short_desc, weather_id, min, max, " +
+                    "humidity, pressure, wind, degrees";
+            db.execSQL("INSERT INTO weather_v3 (" + columns + ") SELECT " + columns +
+                    " FROM weather");
+            db.execSQL("DROP TABLE weather");
+            db.execSQL("ALTER TABLE weather_v3 RENAME TO weather");
+        }
+    };
+
+    // Version 4: locations remember when their forecast was last fetched
+    static final Step LOCATION_FETCHED_AT = new Step(3) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE location ADD COLUMN fetched_at INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Version 5: a covering index for the per-location forecast list
+    static final Step WEATHER_LOCATION_DATE_INDEX = new Step(4) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX weather_location_date ON weather " +
+                    "(location_id, date, short_desc, max, min, weather_id);");
+        }
+    };
+
+    // Version 6: locations remember the city id the forecast server resolved them to
+    static final Step LOCATION_CITY_ID = new Step(5) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE location ADD COLUMN city_id INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Version 7: a table of queued fetches, so they outlive the process
+    static final Step FETCH_JOB_TABLE = new Step(6) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE fetch_job (" +
+                    "_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT NOT NULL, " +
+                    "num_days INTEGER NOT NULL, " +
+                    "state INTEGER NOT NULL DEFAULT 0, " +
+                    "attempts INTEGER NOT NULL DEFAULT 0, " +
+                    "next_run_at INTEGER NOT NULL DEFAULT 0, " +
+                    "claimed_at INTEGER NOT NULL DEFAULT 0, " +
+                    "created_at INTEGER NOT NULL, " +
+                    "last_error TEXT, " +
+                    " UNIQUE (location_setting, num_days));");
+        }
+    };
+
+    // In version order, one step per version
+    private static final Step[] STEPS = {
+            WEATHER_UNIQUE_WITHOUT_REPLACE,
+            LOCATION_FETCHED_AT,
+            WEATHER_LOCATION_DATE_INDEX,
+            LOCATION_CITY_ID,
+            FETCH_JOB_TABLE,
+    };
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * Returns the steps from oldVersion to newVersion in the order they run, or null if
+     * there is no such chain.
+     */
+    static List<Step> path(int oldVersion, int newVersion) {
+        List<Step> path = new ArrayList<Step>();
+        int version = oldVersion;
+        for (Step step : STEPS) {
+            if (version == newVersion) {
+                break;
+            }
+            if (step.fromVersion == version) {
+                path.add(step);
+                version++;
+            }
+        }
+        return version == newVersion ? path : null;
+    }
+
+    /**
+     * Runs every step from oldVersion to newVersion.
+     *
+     * @return false if there is no chain of steps between the two versions, in which case
+     * the database was left alone.
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        List<Step> path = path(oldVersion, newVersion);
+        if (path == null) {
+            return false;
+        }
+        long chainStart = System.nanoTime();
+        for (Step step : path) {
+            long stepStart = System.nanoTime();
+            step.migrate(db);
+            Log.d(LOG_TAG, "Migrated " + step.fromVersion + " -> " + (step.fromVersion + 1) +
+                    " in " + ((System.nanoTime() - stepStart) / 1000) + " us");
+        }
+        Log.d(LOG_TAG, "Migrated " + oldVersion + " -> " + newVersion + " in " +
+                ((System.nanoTime() - chainStart) / 1000000) + " ms");
+        return true;
+    }
+}
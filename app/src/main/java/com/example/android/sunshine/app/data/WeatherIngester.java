@@ -0,0 +1,424 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Bulk write path for the weather database.
+ *
+ * SQLiteDatabase.insert() builds and compiles a fresh INSERT from the key set of every
+ * ContentValues it is handed.  The ingester compiles its statements once up front and
+ * binds values straight into them, preferably from the columns of a {@link ForecastBlock}, and
+ * commits every chunkSize rows.
+ *
+ * Weather rows are upserted on (location_id, date): a day that is already stored is updated in
+ * place, keeping its row id, and left alone entirely when none of its values changed.
+ *
+ * Chunks are written in IMMEDIATE rather than EXCLUSIVE transactions, which with the
+ * write-ahead log lets other connections keep reading while a chunk is being written.
+ *
+ * Statements are bound to the database they were compiled against, and an ingester is not
+ * safe for concurrent use; callers serialize access.
+ */
+class WeatherIngester {
+
+    static final int DEFAULT_CHUNK_SIZE = 500;
+
+    // All three weather statements take the same numbered parameters, so a row is bound the
+    // same way whichever of them ends up running:
+    // ?1 location_id, ?2 date, ?3 weather_id, ?4 short_desc, ?5 min, ?6 max, ?7 humidity,
+    // ?8 pressure, ?9 wind, ?10 degrees
+    private static final String SQL_INSERT_WEATHER = "INSERT INTO " + WeatherEntry.TABLE_NAME +
+            " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES +
+            ") VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9, ?10)";
+
+    private static final String SQL_UPDATE_WEATHER = "UPDATE " + WeatherEntry.TABLE_NAME +
+            " SET " + WeatherEntry.COLUMN_WEATHER_ID + " = ?3, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " = ?4, " +
+            WeatherEntry.COLUMN_MIN_TEMP + " = ?5, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " = ?6, " +
+            WeatherEntry.COLUMN_HUMIDITY + " = ?7, " +
+            WeatherEntry.COLUMN_PRESSURE + " = ?8, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " = ?9, " +
+            WeatherEntry.COLUMN_DEGREES + " = ?10" +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+            WeatherEntry.COLUMN_DATE + " = ?2";
+
+    // Looks up the stored day: 0 if there is none, its row id if every value is the same,
+    // and minus its row id if something changed.
+    private static final String SQL_PROBE_WEATHER = "SELECT COALESCE((SELECT CASE WHEN " +
+            WeatherEntry.COLUMN_WEATHER_ID + " IS ?3 AND " +
+            WeatherEntry.COLUMN_SHORT_DESC + " IS ?4 AND " +
+            WeatherEntry.COLUMN_MIN_TEMP + " IS ?5 AND " +
+            WeatherEntry.COLUMN_MAX_TEMP + " IS ?6 AND " +
+            WeatherEntry.COLUMN_HUMIDITY + " IS ?7 AND " +
+            WeatherEntry.COLUMN_PRESSURE + " IS ?8 AND " +
+            WeatherEntry.COLUMN_WIND_SPEED + " IS ?9 AND " +
+            WeatherEntry.COLUMN_DEGREES + " IS ?10" +
+            " THEN " + WeatherEntry._ID + " ELSE -" + WeatherEntry._ID + " END" +
+            " FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+            WeatherEntry.COLUMN_DATE + " = ?2), 0)";
+
+    private static final String SQL_INSERT_LOCATION = "INSERT INTO " + LocationEntry.TABLE_NAME +
+            " (" + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG +
+            ") VALUES (?, ?, ?, ?)";
+
+    // Keeps a known city id when the block doesn't carry one
+    private static final String SQL_TOUCH_LOCATION = "UPDATE " + LocationEntry.TABLE_NAME +
+            " SET " + LocationEntry.COLUMN_FETCHED_AT + " = ?, " +
+            LocationEntry.COLUMN_CITY_ID + " = CASE WHEN ?2 > 0 THEN ?2 ELSE " +
+            LocationEntry.COLUMN_CITY_ID + " END WHERE " + LocationEntry._ID + " = ?3";
+
+    private static final String SQL_SELECT_LOCATION = "SELECT " + LocationEntry._ID + ", " +
+            LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG +
+            " FROM " + LocationEntry.TABLE_NAME +
+            " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    /**
+     * What a single ingest did, and how fast.
+     */
+    static class IngestStats {
+        int inserted;
+        int updated;
+        int unchanged;
+        int failed;
+        long elapsedNanos;
+
+        // Rows that are now stored as they were handed in
+        int rows() {
+            return inserted + updated + unchanged;
+        }
+
+        double rowsPerSecond() {
+            if (elapsedNanos <= 0) {
+                return 0;
+            }
+            return rows() * 1e9 / elapsedNanos;
+        }
+
+        Bundle toBundle() {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.RESULT_ROWS, rows());
+            result.putInt(WeatherContract.RESULT_INSERTED, inserted);
+            result.putInt(WeatherContract.RESULT_UPDATED, updated);
+            result.putInt(WeatherContract.RESULT_UNCHANGED, unchanged);
+            result.putDouble(WeatherContract.RESULT_ROWS_PER_SECOND, rowsPerSecond());
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return rows() + " rows (" + inserted + " inserted, " + updated + " updated, " +
+                    unchanged + " unchanged, " + failed + " failed) in " +
+                    (elapsedNanos / 1000000) + " ms, " + Math.round(rowsPerSecond()) +
+                    " rows/sec";
+        }
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mInsertWeather;
+    private final SQLiteStatement mUpdateWeather;
+    private final SQLiteStatement mProbeWeather;
+    private final SQLiteStatement mInsertLocation;
+    private final SQLiteStatement mTouchLocation;
+
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+
+    WeatherIngester(SQLiteDatabase db) {
+        mDb = db;
+        mInsertWeather = db.compileStatement(SQL_INSERT_WEATHER);
+        mUpdateWeather = db.compileStatement(SQL_UPDATE_WEATHER);
+        mProbeWeather = db.compileStatement(SQL_PROBE_WEATHER);
+        mInsertLocation = db.compileStatement(SQL_INSERT_LOCATION);
+        mTouchLocation = db.compileStatement(SQL_TOUCH_LOCATION);
+    }
+
+    void setChunkSize(int chunkSize) {
+        mChunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+    }
+
+    int getChunkSize() {
+        return mChunkSize;
+    }
+
+    IngestStats ingest(ForecastBlock block, long locationId) {
+        return ingest(block, locationId, System.currentTimeMillis());
+    }
+
+    /**
+     * Stores every day of the block for the given location and records fetchedAt as the time
+     * the location's forecast was fetched, along with the block's city id if it has one.
+     * Block dates are expected to be normalized already, which is what ForecastBlockHandler
+     * produces.
+     *
+     * The location is stamped in the transaction of the last chunk, so the stamp commits
+     * exactly when the last of the days does.
+     */
+    IngestStats ingest(ForecastBlock block, long locationId, long fetchedAt) {
+        IngestStats stats = new IngestStats();
+        long start = System.nanoTime();
+
+        // An empty block still gets the one transaction that stamps the location
+        int i = 0;
+        do {
+            int chunkEnd = Math.min(block.size, i + mChunkSize);
+            mDb.beginTransactionNonExclusive();
+            try {
+                for (; i < chunkEnd; i++) {
+                    bindWeather(mProbeWeather, block, i, locationId);
+                    bindWeather(mUpdateWeather, block, i, locationId);
+                    bindWeather(mInsertWeather, block, i, locationId);
+                    upsertWeather(stats);
+                }
+                if (i >= block.size) {
+                    mTouchLocation.bindLong(1, fetchedAt);
+                    mTouchLocation.bindLong(2, block.cityId);
+                    mTouchLocation.bindLong(3, locationId);
+                    mTouchLocation.executeUpdateDelete();
+                }
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+        } while (i < block.size);
+
+        stats.elapsedNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    /**
+     * Stores weather rows handed in through the ContentValues based provider API.
+     */
+    IngestStats ingestWeather(ContentValues[] values) {
+        IngestStats stats = new IngestStats();
+        long start = System.nanoTime();
+
+        int i = 0;
+        while (i < values.length) {
+            int chunkEnd = Math.min(values.length, i + mChunkSize);
+            mDb.beginTransactionNonExclusive();
+            try {
+                for (; i < chunkEnd; i++) {
+                    bindWeather(values[i]);
+                    upsertWeather(stats);
+                }
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+        }
+
+        stats.elapsedNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    /**
+     * Upserts a single weather row.
+     *
+     * @return the row id of the stored day, or -1 if the row could not be stored.
+     */
+    long ingestWeather(ContentValues value) {
+        bindWeather(value);
+        return upsertWeather(new IngestStats());
+    }
+
+    /**
+     * Stores location rows handed in through the ContentValues based provider API.
+     */
+    IngestStats ingestLocations(ContentValues[] values) {
+        IngestStats stats = new IngestStats();
+        long start = System.nanoTime();
+
+        int i = 0;
+        while (i < values.length) {
+            int chunkEnd = Math.min(values.length, i + mChunkSize);
+            mDb.beginTransactionNonExclusive();
+            try {
+                for (; i < chunkEnd; i++) {
+                    ContentValues value = values[i];
+                    SQLiteStatement statement = mInsertLocation;
+                    bindString(statement, 1,
+                            value.getAsString(LocationEntry.COLUMN_LOCATION_SETTING));
+                    bindString(statement, 2, value.getAsString(LocationEntry.COLUMN_CITY_NAME));
+                    bindDouble(statement, 3, value.getAsDouble(LocationEntry.COLUMN_COORD_LAT));
+                    bindDouble(statement, 4, value.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+                    insert(statement, stats);
+                }
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+        }
+
+        stats.elapsedNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    /**
+     * Looks up the location row for the setting, inserting it if there is none yet.  Run it
+     * under the same lock as the other ingest methods so two callers can't both insert.
+     *
+     * @return the stored location, or null if it could not be stored.
+     */
+    LocationCache.Entry resolveLocation(String locationSetting, String cityName, double lat,
+                                        double lon) {
+        Cursor cursor = mDb.rawQuery(SQL_SELECT_LOCATION, new String[]{locationSetting});
+        try {
+            if (cursor.moveToFirst()) {
+                return new LocationCache.Entry(cursor.getLong(0), cursor.getString(1),
+                        cursor.getDouble(2), cursor.getDouble(3));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        bindString(mInsertLocation, 1, locationSetting);
+        bindString(mInsertLocation, 2, cityName);
+        mInsertLocation.bindDouble(3, lat);
+        mInsertLocation.bindDouble(4, lon);
+        try {
+            long id = mInsertLocation.executeInsert();
+            return id != -1 ? new LocationCache.Entry(id, cityName, lat, lon) : null;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    void close() {
+        mInsertWeather.close();
+        mUpdateWeather.close();
+        mProbeWeather.close();
+        mInsertLocation.close();
+        mTouchLocation.close();
+    }
+
+    // Runs the weather statements for the row bound into all three of them
+    private long upsertWeather(IngestStats stats) {
+        try {
+            long probe = mProbeWeather.simpleQueryForLong();
+            if (probe > 0) {
+                stats.unchanged++;
+                return probe;
+            }
+            if (probe < 0) {
+                mUpdateWeather.executeUpdateDelete();
+                stats.updated++;
+                return -probe;
+            }
+            long rowId = mInsertWeather.executeInsert();
+            if (rowId != -1) {
+                stats.inserted++;
+            } else {
+                stats.failed++;
+            }
+            return rowId;
+        } catch (SQLException e) {
+            // Like SQLiteDatabase.insert(), a row that violates a constraint is skipped and
+            // counted rather than failing the whole batch
+            stats.failed++;
+            return -1;
+        }
+    }
+
+    private static void insert(SQLiteStatement statement, IngestStats stats) {
+        try {
+            if (statement.executeInsert() != -1) {
+                stats.inserted++;
+            } else {
+                stats.failed++;
+            }
+        } catch (SQLException e) {
+            stats.failed++;
+        }
+    }
+
+    private static void bindWeather(SQLiteStatement statement, ForecastBlock block, int i,
+                                    long locationId) {
+        statement.bindLong(1, locationId);
+        statement.bindLong(2, block.date[i]);
+        statement.bindLong(3, block.weatherId[i]);
+        bindString(statement, 4, block.getDescription(i));
+        statement.bindDouble(5, block.minTemp[i]);
+        statement.bindDouble(6, block.maxTemp[i]);
+        statement.bindDouble(7, block.humidity[i]);
+        statement.bindDouble(8, block.pressure[i]);
+        statement.bindDouble(9, block.windSpeed[i]);
+        statement.bindDouble(10, block.degrees[i]);
+    }
+
+    private void bindWeather(ContentValues value) {
+        Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (date != null) {
+            date = WeatherContract.normalizeDate(date);
+        }
+        Long weatherId = value.getAsLong(WeatherEntry.COLUMN_WEATHER_ID);
+        String description = value.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        Double minTemp = value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+        Double maxTemp = value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        Double humidity = value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+        Double pressure = value.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+        Double windSpeed = value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+        Double degrees = value.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+
+        SQLiteStatement[] statements = {mProbeWeather, mUpdateWeather, mInsertWeather};
+        for (SQLiteStatement statement : statements) {
+            bindLong(statement, 1, locationId);
+            bindLong(statement, 2, date);
+            bindLong(statement, 3, weatherId);
+            bindString(statement, 4, description);
+            bindDouble(statement, 5, minTemp);
+            bindDouble(statement, 6, maxTemp);
+            bindDouble(statement, 7, humidity);
+            bindDouble(statement, 8, pressure);
+            bindDouble(statement, 9, windSpeed);
+            bindDouble(statement, 10, degrees);
+        }
+    }
+
+    private static void bindLong(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    private static void bindDouble(SQLiteStatement statement, int index, Double value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -2,12 +2,23 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Created by hanssi on 9/25/16.
@@ -17,14 +28,31 @@ public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     private WeatherDbHelper mOpenHelper;
+    // Compiled bulk write statements, created on first use
+    private WeatherIngester mIngester;
+    // location_setting -> location row, evicted on every delete or update of the location table
+    private final LocationCache mLocationCache = new LocationCache();
+    // Weather changes are notified on weather/<location setting>, once per batch or window
+    private ChangeNotificationBatcher mNotifications;
+    // weather/<location setting> query results, invalidated by every write below
+    private final ForecastStore mForecastStore = new ForecastStore();
+    // The queued fetches, created on first use
+    private FetchJobStore mJobStore;
+    // Jobs claimed before this are lost with the process that claimed them
+    private long mStartedAt;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int FETCH_JOB_STATS = 400;
+    static final int FORECAST_STORE_STATS = 500;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // The query builder and selections are package-private for the query plan tests
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -41,18 +69,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -61,6 +89,12 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
+        Cursor stored = mForecastStore.query(mOpenHelper.getReadableDatabase(), locationSetting,
+                startDate, projection, sortOrder);
+        if (stored != null) {
+            return stored;
+        }
+
         String[] selectionArgs;
         String selection;
 
@@ -100,7 +134,8 @@ public class WeatherProvider extends ContentProvider {
     /*
      * Here is where to create the UriMatcher
      * This UriMatcher will match each URI to the WEATHER, WEATHER_WITH_LOCATION,
-     * WEATHER_WITH_LOCATION_AND_DATE, and LOCATION integer constants defined above
+     * WEATHER_WITH_LOCATION_AND_DATE, LOCATION, FETCH_JOB_STATS and FORECAST_STORE_STATS integer
+     * constants defined above
      */
     static UriMatcher buildUriMatcher() {
         // The code passed into the constructor represents the code to return for the root URI
@@ -114,6 +149,10 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_FETCH_JOB + "/" +
+                WeatherContract.PATH_STATS, FETCH_JOB_STATS);
+        matcher.addURI(authority, WeatherContract.PATH_FORECAST_STORE + "/" +
+                WeatherContract.PATH_STATS, FORECAST_STORE_STATS);
 
         // Return the new matcher
         return matcher;
@@ -124,7 +163,10 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public boolean onCreate() {
+        mStartedAt = System.currentTimeMillis();
         mOpenHelper = new WeatherDbHelper(getContext());
+        mNotifications = new ChangeNotificationBatcher(getContext().getContentResolver(),
+                ChangeNotificationBatcher.DEFAULT_WINDOW_MILLIS);
         return true;
     }
 
@@ -146,6 +188,10 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case FETCH_JOB_STATS:
+                return WeatherContract.FetchJobEntry.STATS_CONTENT_ITEM_TYPE;
+            case FORECAST_STORE_STATS:
+                return WeatherContract.WeatherEntry.STORE_STATS_CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -195,6 +241,19 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "fetch_job/stats"
+            case FETCH_JOB_STATS: {
+                FetchJobStore jobStore = getJobStore();
+                synchronized (jobStore) {
+                    retCursor = jobStore.stats(System.currentTimeMillis());
+                }
+                break;
+            }
+            // "forecast_store/stats"
+            case FORECAST_STORE_STATS: {
+                retCursor = mForecastStore.stats();
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -211,11 +270,18 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        Uri changedUri = uri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                // Upserts on (location, date) and normalizes the date like bulkInsert does
+                long _id;
+                WeatherIngester ingester = getIngester();
+                synchronized (ingester) {
+                    _id = ingester.ingestWeather(values);
+                }
+                changedUri = weatherUriForLocation(db,
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -233,7 +299,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        onChanged(changedUri);
         return returnUri;
     }
 
@@ -247,6 +313,7 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
 
         int rowsDeleted;
+        Set<Uri> changedUris;
 
         // A null value deletes all rows
         // Return the number of rows deleted
@@ -254,13 +321,31 @@ public class WeatherProvider extends ContentProvider {
             selection = "1";
         switch(match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransactionNonExclusive();
+                try {
+                    changedUris = weatherUrisForSelection(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+            case LOCATION: {
+                // Held so a concurrent resolveLocation can't cache a row that is being deleted.
+                // The ingester lock comes first, in the order applyBatch and resolveLocation
+                // take them, or a batch holding the database could wait on the cache forever.
+                WeatherIngester ingester = getIngester();
+                synchronized (ingester) {
+                    synchronized (mLocationCache) {
+                        rowsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME,
+                                selection, selectionArgs);
+                        mLocationCache.invalidate();
+                    }
+                }
+                changedUris = singleton(uri);
                 break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -268,20 +353,12 @@ public class WeatherProvider extends ContentProvider {
         // Notify the uri listeners (using the content resolver)
         // if the rowsDeleted != 0 or the selection is null
         if(rowsDeleted != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changedUris);
 
         // Return the actual rows deleted
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
-        }
-    }
-
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
@@ -293,17 +370,39 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
 
         int rowsUpdated;
+        Set<Uri> changedUris;
 
         // Return the number of rows updated
         switch(match) {
             case WEATHER:
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                db.beginTransactionNonExclusive();
+                try {
+                    changedUris = weatherUrisForSelection(db, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    // Rows moved to another location change that location's list too
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                        changedUris.add(weatherUriForLocation(db, values.getAsLong(
+                                WeatherContract.WeatherEntry.COLUMN_LOC_KEY)));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+            case LOCATION: {
+                // The same locks, in the same order, as deleting locations
+                WeatherIngester ingester = getIngester();
+                synchronized (ingester) {
+                    synchronized (mLocationCache) {
+                        rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                                selection, selectionArgs);
+                        mLocationCache.invalidate();
+                    }
+                }
+                changedUris = singleton(uri);
                 break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -311,7 +410,7 @@ public class WeatherProvider extends ContentProvider {
         // Notify the uri listeners (using the content resolver)
         // if the rowsUpdated != 0
         if(rowsUpdated != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changedUris);
 
         // Return the actual rows updated
         return rowsUpdated;
@@ -319,37 +418,462 @@ public class WeatherProvider extends ContentProvider {
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        WeatherIngester.IngestStats stats;
+        Set<Uri> changedUris;
         switch (match) {
-            case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
+            case WEATHER: {
+                WeatherIngester ingester = getIngester();
+                synchronized (ingester) {
+                    stats = ingester.ingestWeather(values);
+                }
+                // One notification per location written, however many rows it got
+                Set<Long> locationIds = new LinkedHashSet<Long>();
+                for (ContentValues value : values) {
+                    locationIds.add(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                }
+                changedUris = new LinkedHashSet<Uri>();
+                SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+                for (Long locationId : locationIds) {
+                    changedUris.add(weatherUriForLocation(db, locationId));
+                }
+                break;
+            }
+            case LOCATION: {
+                WeatherIngester ingester = getIngester();
+                synchronized (ingester) {
+                    stats = ingester.ingestLocations(values);
+                }
+                changedUris = singleton(uri);
+                break;
+            }
+            default:
+                return super.bulkInsert(uri, values);
+        }
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "bulkInsert " + uri + ": " + stats);
+        }
+        mOpenHelper.checkpointIfDeferred();
+        if (stats.rows() != 0) {
+            notifyChanges(changedUris);
+        }
+        return stats.rows();
+    }
+
+    /*
+     * Batch methods that don't fit the row based ContentProvider API.  The method names and
+     * extras are defined in WeatherContract.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_BULK_INSERT_BLOCK.equals(method)) {
+            ForecastBlock block = blockFrom(method, extras);
+            long locationId = extras.getLong(WeatherContract.EXTRA_LOCATION_ID);
+            long fetchedAt = extras.getLong(WeatherContract.EXTRA_FETCHED_AT,
+                    System.currentTimeMillis());
+
+            WeatherIngester.IngestStats stats;
+            WeatherIngester ingester = getIngester();
+            synchronized (ingester) {
+                stats = ingestBlock(ingester, block, locationId, fetchedAt, extras);
+            }
+            if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, method + " " + block.locationSetting + ": " + stats);
+            }
+            mOpenHelper.checkpointIfDeferred();
+            onBlockStored(block, locationId, fetchedAt, stats);
+            return stats.toBundle();
+        }
+        if (WeatherContract.METHOD_BULK_INSERT_BLOCKS.equals(method)) {
+            return bulkInsertBlocks(method, extras);
+        }
+        if (WeatherContract.METHOD_RESOLVE_LOCATION.equals(method)) {
+            return resolveLocation(arg, extras);
+        }
+        if (WeatherContract.METHOD_GET_FORECAST_BLOCK.equals(method)) {
+            return getForecastBlocks(new String[]{arg}, extras);
+        }
+        if (WeatherContract.METHOD_GET_FORECAST_BLOCKS.equals(method)) {
+            return getForecastBlocks(extras != null ?
+                    extras.getStringArray(WeatherContract.EXTRA_LOCATION_SETTINGS) : null, extras);
+        }
+        if (WeatherContract.METHOD_ENQUEUE_FETCH_JOB.equals(method) ||
+                WeatherContract.METHOD_CLAIM_FETCH_JOB.equals(method) ||
+                WeatherContract.METHOD_FINISH_FETCH_JOB.equals(method)) {
+            FetchJobStore jobStore = getJobStore();
+            synchronized (jobStore) {
+                return callJobStore(jobStore, method, arg, extras != null ? extras : Bundle.EMPTY);
+            }
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private static Bundle callJobStore(FetchJobStore jobStore, String method, String arg,
+                                       Bundle extras) {
+        long now = System.currentTimeMillis();
+        int numDays = extras.getInt(WeatherContract.EXTRA_NUM_DAYS);
+        if (WeatherContract.METHOD_ENQUEUE_FETCH_JOB.equals(method)) {
+            if (arg == null || numDays <= 0) {
+                throw new IllegalArgumentException("No location setting or days in " + method);
+            }
+            return jobStore.enqueue(arg, numDays,
+                    extras.getInt(WeatherContract.EXTRA_FAILED_ATTEMPTS), now);
+        }
+        if (WeatherContract.METHOD_CLAIM_FETCH_JOB.equals(method)) {
+            FetchJobStore.Job job = jobStore.claim(arg, numDays,
+                    extras.getBoolean(WeatherContract.EXTRA_RUN_NOW), now);
+            if (job != null) {
+                return job.toBundle();
+            }
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.RESULT_JOB_ID, -1);
+            result.putLong(WeatherContract.RESULT_NEXT_RUN_AT, jobStore.getNextRunAt());
+            return result;
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.RESULT_JOB_STATE, jobStore.finish(
+                extras.getLong(WeatherContract.EXTRA_JOB_ID, -1),
+                extras.getLong(WeatherContract.EXTRA_CLAIMED_AT, -1),
+                extras.getInt(WeatherContract.EXTRA_JOB_OUTCOME,
+                        WeatherContract.FetchJobEntry.OUTCOME_FAILED),
+                extras.getString(WeatherContract.EXTRA_JOB_ERROR), now));
+        return result;
+    }
+
+    /*
+     * Answers the location id from the cache when it can, otherwise looks the location up and
+     * inserts it if needed in a single step on the ingester.  Locations resolved this way don't
+     * notify observers, they carry no weather yet and the weather write that follows does.
+     */
+    private Bundle resolveLocation(String locationSetting, Bundle extras) {
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("No location setting in " +
+                    WeatherContract.METHOD_RESOLVE_LOCATION);
+        }
+        Bundle result = new Bundle();
+
+        LocationCache.Entry entry = mLocationCache.get(locationSetting);
+        if (entry != null) {
+            result.putLong(WeatherContract.RESULT_LOCATION_ID, entry.id);
+            result.putBoolean(WeatherContract.RESULT_CACHE_HIT, true);
+            return result;
+        }
+
+        String cityName = extras != null ?
+                extras.getString(WeatherContract.EXTRA_CITY_NAME) : null;
+        double lat = extras != null ? extras.getDouble(WeatherContract.EXTRA_COORD_LAT) : 0;
+        double lon = extras != null ? extras.getDouble(WeatherContract.EXTRA_COORD_LONG) : 0;
+
+        WeatherIngester ingester = getIngester();
+        synchronized (ingester) {
+            synchronized (mLocationCache) {
+                entry = ingester.resolveLocation(locationSetting, cityName, lat, lon);
+                if (entry != null) {
+                    mLocationCache.put(locationSetting, entry);
+                }
+            }
+        }
+
+        result.putLong(WeatherContract.RESULT_LOCATION_ID, entry != null ? entry.id : -1);
+        result.putBoolean(WeatherContract.RESULT_CACHE_HIT, false);
+        return result;
+    }
+
+    /*
+     * Runs the whole batch in one transaction and sends one notification per changed URI
+     * once it is done, rather than one per operation.  The ingester lock is taken first, as
+     * every other write path does, so a batch can't deadlock with an ingest.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherIngester ingester = getIngester();
+        mNotifications.beginBatch();
+        try {
+            synchronized (ingester) {
+                db.beginTransactionNonExclusive();
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
+                    ContentProviderResult[] results = super.applyBatch(operations);
+                    db.setTransactionSuccessful();
+                    return results;
+                } finally {
+                    db.endTransaction();
+                    // The operations invalidated the store before their writes committed, a
+                    // reader may have loaded the old rows since
+                    mForecastStore.invalidateAll();
+                }
+            }
+        } finally {
+            mNotifications.endBatch();
+        }
+    }
+
+    /*
+     * Stores every METHOD_BULK_INSERT_BLOCK request in EXTRA_BLOCKS in one transaction, and
+     * notifies the locations that changed once it committed.
+     */
+    private Bundle bulkInsertBlocks(String method, Bundle extras) {
+        ArrayList<Bundle> requests = extras != null ?
+                extras.<Bundle>getParcelableArrayList(WeatherContract.EXTRA_BLOCKS) : null;
+        if (requests == null) {
+            throw new IllegalArgumentException("No blocks in " + method);
+        }
+        int count = requests.size();
+        ForecastBlock[] blocks = new ForecastBlock[count];
+        long[] locationIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = blockFrom(method, requests.get(i));
+            locationIds[i] = requests.get(i).getLong(WeatherContract.EXTRA_LOCATION_ID);
+        }
+        long fetchedAt = extras.getLong(WeatherContract.EXTRA_FETCHED_AT,
+                System.currentTimeMillis());
+
+        WeatherIngester.IngestStats[] stats = new WeatherIngester.IngestStats[count];
+        Bundle result = new Bundle();
+        int rows = 0;
+        int inserted = 0;
+        int updated = 0;
+        int unchanged = 0;
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherIngester ingester = getIngester();
+        mNotifications.beginBatch();
+        try {
+            synchronized (ingester) {
+                db.beginTransactionNonExclusive();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        stats[i] = ingestBlock(ingester, blocks[i], locationIds[i], fetchedAt,
+                                requests.get(i));
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
-            default:
-                return super.bulkInsert(uri, values);
+            }
+            mOpenHelper.checkpointIfDeferred();
+            for (int i = 0; i < count; i++) {
+                onBlockStored(blocks[i], locationIds[i], fetchedAt, stats[i]);
+                rows += stats[i].rows();
+                inserted += stats[i].inserted;
+                updated += stats[i].updated;
+                unchanged += stats[i].unchanged;
+            }
+        } finally {
+            mNotifications.endBatch();
+        }
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, method + ": " + count + " blocks, " + rows + " rows");
+        }
+        result.putInt(WeatherContract.RESULT_ROWS, rows);
+        result.putInt(WeatherContract.RESULT_INSERTED, inserted);
+        result.putInt(WeatherContract.RESULT_UPDATED, updated);
+        result.putInt(WeatherContract.RESULT_UNCHANGED, unchanged);
+        return result;
+    }
+
+    // The block of a METHOD_BULK_INSERT_BLOCK request, which must name its location
+    private static ForecastBlock blockFrom(String method, Bundle extras) {
+        ForecastBlock block = ForecastBlock.fromBundle(extras);
+        if (block == null) {
+            throw new IllegalArgumentException("No forecast block in " + method);
+        }
+        if (extras.getLong(WeatherContract.EXTRA_LOCATION_ID, -1) < 0) {
+            throw new IllegalArgumentException("No location id in " + method);
+        }
+        return block;
+    }
+
+    // Called holding the ingester's lock
+    private static WeatherIngester.IngestStats ingestBlock(WeatherIngester ingester,
+                                                           ForecastBlock block, long locationId,
+                                                           long fetchedAt, Bundle extras) {
+        int defaultChunkSize = ingester.getChunkSize();
+        ingester.setChunkSize(extras.getInt(WeatherContract.EXTRA_CHUNK_SIZE, defaultChunkSize));
+        try {
+            return ingester.ingest(block, locationId, fetchedAt);
+        } finally {
+            ingester.setChunkSize(defaultChunkSize);
+        }
+    }
+
+    // Called once the block's write committed
+    private void onBlockStored(ForecastBlock block, long locationId, long fetchedAt,
+                               WeatherIngester.IngestStats stats) {
+        if (stats.inserted + stats.updated > 0) {
+            notifyChanges(singleton(
+                    weatherUriForLocation(mOpenHelper.getReadableDatabase(), locationId)));
+        } else {
+            // A refetch of an unchanged forecast only moves fetched_at, which nobody
+            // observes, but the freshness check reads it from the stored snapshots
+            mForecastStore.touch(block.locationSetting, fetchedAt);
         }
     }
 
+    // weather/<location setting> for the location, or the whole weather table if the
+    // location is unknown
+    private static Uri weatherUriForLocation(SQLiteDatabase db, Long locationId) {
+        if (locationId == null) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        try {
+            return WeatherContract.WeatherEntry.buildWeatherLocation(
+                    DatabaseUtils.stringForQuery(db, "SELECT " +
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                            WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                            WeatherContract.LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(locationId)}));
+        } catch (SQLiteDoneException e) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+    }
+
+    // The weather/<location setting> URIs of the locations that have weather rows matching
+    // the selection.  Without a selection every location is affected, so that is the table.
+    private static Set<Uri> weatherUrisForSelection(SQLiteDatabase db, String selection,
+                                                    String[] selectionArgs) {
+        if (selection == null || "1".equals(selection)) {
+            return singleton(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        Cursor cursor = db.rawQuery("SELECT " +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                WeatherContract.LocationEntry._ID + " IN (SELECT " +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " FROM " +
+                WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " + selection + ")",
+                selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                uris.add(WeatherContract.WeatherEntry.buildWeatherLocation(cursor.getString(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (uris.isEmpty()) {
+            // Rows without a location can only be covered by the table
+            uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return uris;
+    }
+
+    private static Set<Uri> singleton(Uri uri) {
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        uris.add(uri);
+        return uris;
+    }
+
+    // Sends the notifications right away, as a batch of their own
+    private void notifyChanges(Set<Uri> uris) {
+        mNotifications.beginBatch();
+        for (Uri uri : uris) {
+            onChanged(uri);
+        }
+        mNotifications.endBatch();
+    }
+
+    // Drops what the forecast store holds for the changed URI and notifies it.  Called once
+    // the write has committed.
+    private void onChanged(Uri uri) {
+        if (sUriMatcher.match(uri) == WEATHER_WITH_LOCATION) {
+            mForecastStore.invalidate(
+                    WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        } else {
+            // The whole weather table, or locations, which every stored row joins
+            mForecastStore.invalidateAll();
+        }
+        mNotifications.notifyChange(uri);
+    }
+
+    /*
+     * The days of every location packed into one set of primitive arrays, read from the
+     * forecast store, so the caller gets them in one round trip without a cursor window.
+     */
+    private Bundle getForecastBlocks(String[] locationSettings, Bundle extras) {
+        if (locationSettings == null) {
+            throw new IllegalArgumentException("No location settings");
+        }
+        long startDate = extras != null ?
+                extras.getLong(WeatherContract.EXTRA_START_DATE, 0) : 0;
+        int numDays = extras != null ?
+                extras.getInt(WeatherContract.EXTRA_NUM_DAYS, Integer.MAX_VALUE) :
+                Integer.MAX_VALUE;
+
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        ForecastStore.Snapshot[] snapshots = new ForecastStore.Snapshot[locationSettings.length];
+        int[] offsets = new int[locationSettings.length + 1];
+        for (int i = 0; i < locationSettings.length; i++) {
+            if (locationSettings[i] == null) {
+                throw new IllegalArgumentException("Null location setting");
+            }
+            snapshots[i] = mForecastStore.get(db, locationSettings[i], startDate);
+            offsets[i + 1] = offsets[i] + Math.min(snapshots[i].size, Math.max(numDays, 0));
+        }
+
+        int total = offsets[locationSettings.length];
+        long[] dates = new long[total];
+        double[] minTemps = new double[total];
+        double[] maxTemps = new double[total];
+        int[] weatherIds = new int[total];
+        for (int i = 0; i < snapshots.length; i++) {
+            ForecastStore.Snapshot snapshot = snapshots[i];
+            int offset = offsets[i];
+            int days = offsets[i + 1] - offset;
+            System.arraycopy(snapshot.longs(ForecastStore.COL_DATE), 0, dates, offset, days);
+            System.arraycopy(snapshot.doubles(ForecastStore.COL_MIN_TEMP), 0, minTemps, offset,
+                    days);
+            System.arraycopy(snapshot.doubles(ForecastStore.COL_MAX_TEMP), 0, maxTemps, offset,
+                    days);
+            long[] ids = snapshot.longs(ForecastStore.COL_WEATHER_ID);
+            for (int day = 0; day < days; day++) {
+                weatherIds[offset + day] = (int) ids[day];
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putStringArray(WeatherContract.RESULT_LOCATION_SETTINGS, locationSettings);
+        result.putIntArray(WeatherContract.RESULT_OFFSETS, offsets);
+        result.putLongArray(WeatherContract.RESULT_DATES, dates);
+        result.putDoubleArray(WeatherContract.RESULT_MIN_TEMPS, minTemps);
+        result.putDoubleArray(WeatherContract.RESULT_MAX_TEMPS, maxTemps);
+        result.putIntArray(WeatherContract.RESULT_WEATHER_IDS, weatherIds);
+        return result;
+    }
+
+    private synchronized WeatherIngester getIngester() {
+        if (mIngester == null) {
+            mIngester = new WeatherIngester(mOpenHelper.getWritableDatabase());
+        }
+        return mIngester;
+    }
+
+    private synchronized FetchJobStore getJobStore() {
+        if (mJobStore == null) {
+            mJobStore = new FetchJobStore(mOpenHelper.getWritableDatabase(), mStartedAt);
+        }
+        return mJobStore;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        synchronized (this) {
+            if (mIngester != null) {
+                mIngester.close();
+                mIngester = null;
+            }
+            if (mJobStore != null) {
+                Log.d(LOG_TAG, mJobStore.toString());
+                mJobStore = null;
+            }
+        }
+        mLocationCache.invalidate();
+        mForecastStore.invalidateAll();
+        Log.d(LOG_TAG, mForecastStore.toString());
+        mNotifications.close();
         mOpenHelper.close();
         super.shutdown();
     }